@@ -0,0 +1,52 @@
+/*
+Fills the daily_intake rollup from the meals already marked eaten, live or archived, for databases that had plan history before the table existed.
+Runs at startup only while the rollup is empty, as a single grouped INSERT ... SELECT. Meals eaten without a date can't be placed
+on a day and are left out, as they were from today's progress before.
+ */
+
+package spring.demo.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+@Component
+public class DailyIntakeBackfill implements ApplicationRunner {
+
+    private final JdbcTemplate jdbc;
+    private static final Logger log = LoggerFactory.getLogger(DailyIntakeBackfill.class);
+
+    @Value("${intake.backfill.enabled:true}")
+    private boolean enabled;
+
+    public DailyIntakeBackfill(DataSource dataSource) {
+        this.jdbc = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled || Boolean.TRUE.equals(jdbc.queryForObject("SELECT EXISTS (SELECT 1 FROM daily_intake)", Boolean.class))) {
+            return;
+        }
+
+        int days = jdbc.update(
+                "INSERT INTO daily_intake (user_id, intake_date, calories, protein, carbohydrate, fat, cost, meals) " +
+                        "SELECT ump.user_id, ump.eaten_date, SUM(r.calories), SUM(r.protein), SUM(r.carbohydrate), SUM(r.fat), " +
+                        "SUM(COALESCE(r.meal_cost, 0)), COUNT(*) " +
+                        "FROM (SELECT user_id, recipe_id, eaten_date FROM user_meal_plans WHERE eaten = true " +
+                        "UNION ALL SELECT user_id, recipe_id, eaten_date FROM user_meal_plan_archive) ump " +
+                        "JOIN recipes r ON r.id = ump.recipe_id " +
+                        "WHERE ump.eaten_date IS NOT NULL " +
+                        "GROUP BY ump.user_id, ump.eaten_date");
+
+        if (days > 0) {
+            log.info("Backfilled daily_intake with {} user days from the eaten meal history", days);
+        }
+    }
+}
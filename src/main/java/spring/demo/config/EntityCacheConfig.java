@@ -0,0 +1,75 @@
+/*
+Hibernate second-level and query cache for the read-mostly recipe and ingredient tables. Regions live in Caffeine through JCache,
+so each one is a bounded W-TinyLFU cache in this process with a TTL as the backstop for writes made by another node.
+Every context gets its own cache manager so test contexts on different databases never share entries.
+ */
+
+package spring.demo.config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import java.net.URI;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class EntityCacheConfig {
+
+    public static final String RECIPES = "recipes";
+    public static final String INGREDIENTS = "ingredients";
+    public static final String RECIPE_QUERIES = "recipe-queries";
+    public static final String INGREDIENT_QUERIES = "ingredient-queries";
+    // Hibernate's own regions once the query cache is on
+    public static final String DEFAULT_QUERIES = "default-query-results-region";
+    public static final String UPDATE_TIMESTAMPS = "default-update-timestamps-region";
+
+    @Bean(destroyMethod = "close")
+    public CacheManager entityCacheManager(@Value("${persistence.cache.recipes:5000}") long recipes,
+                                           @Value("${persistence.cache.ingredients:20000}") long ingredients,
+                                           @Value("${persistence.cache.queries:2000}") long queries,
+                                           @Value("${persistence.cache.ttl-minutes:60}") long ttlMinutes) {
+        CachingProvider provider = Caching.getCachingProvider(CaffeineCachingProvider.class.getName());
+        CacheManager manager = provider.getCacheManager(
+                URI.create("entity-cache-" + UUID.randomUUID()), EntityCacheConfig.class.getClassLoader());
+
+        long ttlNanos = TimeUnit.MINUTES.toNanos(ttlMinutes);
+        manager.createCache(RECIPES, bounded(recipes, ttlNanos));
+        manager.createCache(INGREDIENTS, bounded(ingredients, ttlNanos));
+        manager.createCache(RECIPE_QUERIES, bounded(queries, ttlNanos));
+        manager.createCache(INGREDIENT_QUERIES, bounded(queries, ttlNanos));
+        manager.createCache(DEFAULT_QUERIES, bounded(queries, ttlNanos));
+        // one entry per table, evicting one would let stale query results through
+        manager.createCache(UPDATE_TIMESTAMPS, new CaffeineConfiguration<>());
+        return manager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer entityCache(CacheManager entityCacheManager,
+                                                     @Value("${persistence.cache.statistics:true}") boolean statistics) {
+        return properties -> {
+            properties.put("hibernate.cache.use_second_level_cache", true);
+            properties.put("hibernate.cache.use_query_cache", true);
+            properties.put("hibernate.cache.region.factory_class", "jcache");
+            properties.put("hibernate.javax.cache.cache_manager", entityCacheManager);
+            // region hit ratios come from Hibernate's statistics, without its per-session log lines
+            properties.putIfAbsent("hibernate.generate_statistics", statistics);
+            properties.putIfAbsent("hibernate.session.events.log", false);
+        };
+    }
+
+    private static CaffeineConfiguration<Object, Object> bounded(long maximumSize, long ttlNanos) {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setMaximumSize(OptionalLong.of(maximumSize));
+        configuration.setExpireAfterWrite(OptionalLong.of(ttlNanos));
+        return configuration;
+    }
+}
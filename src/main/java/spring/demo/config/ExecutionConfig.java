@@ -0,0 +1,49 @@
+/*
+ * Threads used off the request path. With spring.threads.virtual.enabled Tomcat serves requests on virtual threads,
+ * and the executors here follow the same switch so blocking price calls never tie up a platform thread.
+ */
+
+package spring.demo.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+@EnableScheduling
+public class ExecutionConfig {
+
+    // Runs remote price lookups for plan generation; each plan bounds its own calls with pricing.parallelism
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService pricingExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtual,
+                                           @Value("${pricing.threads:16}") int threads) {
+        if (virtual) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("pricing-", 0).factory());
+        }
+        return Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("pricing-", 0).daemon().factory());
+    }
+
+    // Runs the independent dashboard reads of /api/load side by side, each on its own pooled connection
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService dashboardExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtual,
+                                             @Value("${dashboard.threads:16}") int threads) {
+        if (virtual) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("dashboard-", 0).factory());
+        }
+        return Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("dashboard-", 0).daemon().factory());
+    }
+
+    // Sends plan job progress to streaming clients, so a slow connection never holds up the job generating the plan
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService planEventsExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtual,
+                                              @Value("${plan.jobs.event-threads:4}") int threads) {
+        if (virtual) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("plan-events-", 0).factory());
+        }
+        return Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("plan-events-", 0).daemon().factory());
+    }
+}
@@ -0,0 +1,37 @@
+/*
+Hibernate settings for writing a whole meal plan at once. Plan rows and grocery rows take their ids from pooled sequences,
+so the inserts can be held until flush, ordered by table and sent as JDBC batches instead of one statement per row.
+The entity manager a web request keeps open gives its connection back after each transaction, so a plan that is priced
+between transactions doesn't sit on a pooled connection while the price API answers.
+ */
+
+package spring.demo.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class PersistenceConfig {
+
+    // ids each sequence call hands out, also the INCREMENT BY of the sequences
+    public static final int ID_BLOCK = 50;
+
+    @Bean
+    public HibernatePropertiesCustomizer batchInserts(@Value("${persistence.batch-size:50}") int batchSize) {
+        return properties -> {
+            properties.putIfAbsent("hibernate.jdbc.batch_size", batchSize);
+            properties.putIfAbsent("hibernate.order_inserts", true);
+            properties.putIfAbsent("hibernate.order_updates", true);
+            properties.putIfAbsent("hibernate.jdbc.batch_versioned_data", true);
+        };
+    }
+
+    // Spring's default holds the first connection a request's entity manager takes until the request ends
+    @Bean
+    public HibernatePropertiesCustomizer releaseConnections() {
+        return properties -> properties.putIfAbsent("hibernate.connection.handling_mode",
+                "DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION");
+    }
+}
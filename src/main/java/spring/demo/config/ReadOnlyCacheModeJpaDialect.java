@@ -0,0 +1,44 @@
+package spring.demo.config; // keeps read-only transactions, which may run on the replica, from filling the shared entity cache
+
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import org.hibernate.jpa.SpecHints;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+
+import java.sql.SQLException;
+
+// A replica can lag the primary, and an entity it loads would otherwise be put in the second-level cache and then served
+// to writes on the primary. Read-only transactions still read cached entries but only read-write ones put them there.
+// Set as the JPA store mode rather than the session's cache mode, which find() replaces with the entity manager's properties
+public class ReadOnlyCacheModeJpaDialect extends HibernateJpaDialect {
+
+    private record ReadOnlyTransaction(Object transactionData, EntityManager entityManager, Object previous) {
+    }
+
+    @Override
+    public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition)
+            throws PersistenceException, SQLException, TransactionException {
+        Object transactionData = super.beginTransaction(entityManager, definition);
+        if (!definition.isReadOnly()) {
+            return transactionData;
+        }
+        Object previous = entityManager.getProperties().get(SpecHints.HINT_SPEC_CACHE_STORE_MODE);
+        entityManager.setProperty(SpecHints.HINT_SPEC_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+        return new ReadOnlyTransaction(transactionData, entityManager, previous);
+    }
+
+    @Override
+    public void cleanupTransaction(Object transactionData) {
+        if (transactionData instanceof ReadOnlyTransaction readOnly) {
+            // the entity manager outlives the transaction when a web request keeps it open
+            readOnly.entityManager().setProperty(SpecHints.HINT_SPEC_CACHE_STORE_MODE,
+                    readOnly.previous() != null ? readOnly.previous() : CacheStoreMode.USE);
+            super.cleanupTransaction(readOnly.transactionData());
+        } else {
+            super.cleanupTransaction(transactionData);
+        }
+    }
+}
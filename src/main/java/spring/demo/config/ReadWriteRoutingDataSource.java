@@ -0,0 +1,32 @@
+package spring.demo.config; // sends read-only transactions to the replica and everything else to the primary
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import spring.demo.service.ReadYourWrites;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+// Must sit behind a LazyConnectionDataSourceProxy: the read-only flag is only set once the transaction has begun
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    enum Target { PRIMARY, REPLICA }
+
+    private final ReadYourWrites readYourWrites;
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, ReadYourWrites readYourWrites) {
+        this.readYourWrites = readYourWrites;
+        setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            readYourWrites.onWrite();
+            return Target.PRIMARY;
+        }
+        return readYourWrites.mustReadPrimary() ? Target.PRIMARY : Target.REPLICA;
+    }
+}
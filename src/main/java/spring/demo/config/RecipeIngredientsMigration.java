@@ -0,0 +1,120 @@
+/*
+One-off migration of recipe ingredients from the old recipe_ingredients collection table into the recipes.ingredients JSON column.
+Runs at startup before the catalog is loaded, only touches recipes whose column is still empty, and leaves the old table in place
+so it can be checked and dropped by hand afterwards. Does nothing once every recipe is migrated or when the old table doesn't exist.
+ */
+
+package spring.demo.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import spring.demo.models.Recipe;
+import spring.demo.models.repository.RecipeRepository;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+public class RecipeIngredientsMigration implements ApplicationRunner {
+
+    private static final String LEGACY_TABLE = "recipe_ingredients";
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate named;
+    private final RecipeRepository recipeRepository;
+    private final TransactionTemplate transactionTemplate;
+    private static final Logger log = LoggerFactory.getLogger(RecipeIngredientsMigration.class);
+
+    @Value("${recipes.ingredients-migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${recipes.ingredients-migration.batch-size:500}")
+    private int batchSize;
+
+    public RecipeIngredientsMigration(DataSource dataSource, RecipeRepository recipeRepository,
+                                      PlatformTransactionManager transactionManager) {
+        this.dataSource = dataSource;
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.named = new NamedParameterJdbcTemplate(jdbc);
+        this.recipeRepository = recipeRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws SQLException {
+        if (!enabled || !legacyTableExists()) {
+            return;
+        }
+
+        int migrated = 0;
+        while (true) {
+            List<Long> ids = jdbc.queryForList(
+                    "SELECT r.id FROM recipes r WHERE r.ingredients IS NULL " +
+                            "AND EXISTS (SELECT 1 FROM " + LEGACY_TABLE + " ri WHERE ri.entity_id = r.id) " +
+                            "ORDER BY r.id LIMIT ?", Long.class, batchSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            int batch = migrate(ids);
+            if (batch == 0) {
+                break;
+            }
+            migrated += batch;
+        }
+
+        if (migrated > 0) {
+            log.info("Moved the ingredients of {} recipes into recipes.ingredients, {} can be dropped once checked",
+                    migrated, LEGACY_TABLE);
+        }
+    }
+
+    // Copies one batch of recipes, the setter normalizes the measures again on the way in
+    private int migrate(List<Long> ids) {
+        Map<Long, Map<String, String>> ingredients = new HashMap<>();
+        named.query("SELECT entity_id, map_key, map_value FROM " + LEGACY_TABLE +
+                        " WHERE entity_id IN (:ids) ORDER BY entity_id, map_key",
+                new MapSqlParameterSource("ids", ids),
+                (ResultSet rs) -> {
+                    ingredients.computeIfAbsent(rs.getLong("entity_id"), id -> new LinkedHashMap<>())
+                            .put(rs.getString("map_key"), rs.getString("map_value"));
+                });
+
+        return transactionTemplate.execute(status -> {
+            List<Recipe> recipes = recipeRepository.findAllById(ids);
+            for (Recipe recipe : recipes) {
+                recipe.setIngredients(ingredients.getOrDefault(recipe.getId(), Map.of()));
+            }
+            recipeRepository.saveAll(recipes);
+            return recipes.size();
+        });
+    }
+
+    private boolean legacyTableExists() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            for (String name : List.of(LEGACY_TABLE, LEGACY_TABLE.toUpperCase())) {
+                try (ResultSet tables = connection.getMetaData().getTables(null, null, name, new String[]{"TABLE"})) {
+                    if (tables.next()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+Primary/replica datasources, only when datasource.replica.url is set; without it the app keeps Boot's single datasource.
+The primary is configured through spring.datasource.* as before, the replica through datasource.replica.* and defaults to
+the primary's driver and credentials. Locally two H2 or Postgres instances will do, e.g. a second database kept in sync by hand.
+Read-only transactions only read the second-level cache, see ReadOnlyCacheModeJpaDialect.
+ */
+
+package spring.demo.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.AbstractEntityManagerFactoryBean;
+import spring.demo.service.ReadYourWrites;
+
+import javax.sql.DataSource;
+
+@Configuration
+@ConditionalOnProperty(name = "datasource.replica.url")
+public class ReplicaRoutingConfig {
+
+    @Bean(destroyMethod = "close")
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConfigurationProperties("datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(DataSourceProperties properties,
+                                              @Value("${datasource.replica.url}") String url,
+                                              @Value("${datasource.replica.username:}") String username,
+                                              @Value("${datasource.replica.password:}") String password) {
+        HikariDataSource replica = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        replica.setJdbcUrl(url);
+        if (!username.isEmpty()) {
+            replica.setUsername(username);
+            replica.setPassword(password);
+        }
+        replica.setReadOnly(true);
+        replica.setPoolName("replica");
+        return replica;
+    }
+
+    // What JPA and every JdbcTemplate get: connections are only taken once the transaction says whether it is read-only
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, HikariDataSource replicaDataSource,
+                                 ReadYourWrites readYourWrites) {
+        return new LazyConnectionDataSourceProxy(
+                new ReadWriteRoutingDataSource(primaryDataSource, replicaDataSource, readYourWrites));
+    }
+
+    // Boot takes the JPA dialect from its vendor adapter, so it is swapped on the entity manager factory before that runs
+    @Bean
+    public static BeanPostProcessor readOnlyCacheMode() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof AbstractEntityManagerFactoryBean entityManagerFactory) {
+                    entityManagerFactory.setJpaDialect(new ReadOnlyCacheModeJpaDialect());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,60 @@
+/*
+Moves the id sequences of user_meal_plans and user_ingredients past the rows written while those tables used identity columns.
+Runs first at startup: draws one value from each sequence and restarts it a full block above the highest id when it is behind,
+so the pooled optimizer's first block can't reach existing rows. Does nothing once the sequences are ahead.
+ */
+
+package spring.demo.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class SequenceAlignment implements ApplicationRunner {
+
+    // table -> the sequence its ids come from
+    private static final Map<String, String> SEQUENCES = Map.of(
+            "user_meal_plans", "user_meal_plans_seq",
+            "user_ingredients", "user_ingredients_seq");
+
+    private final JdbcTemplate jdbc;
+    private static final Logger log = LoggerFactory.getLogger(SequenceAlignment.class);
+
+    public SequenceAlignment(DataSource dataSource) {
+        this.jdbc = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        SEQUENCES.forEach((table, sequence) -> {
+            try {
+                align(table, sequence);
+            } catch (DataAccessException e) {
+                log.warn("Could not check {} against {}: {}", sequence, table, e.getMessage());
+            }
+        });
+    }
+
+    private void align(String table, String sequence) {
+        Long maxId = jdbc.queryForObject("SELECT MAX(id) FROM " + table, Long.class);
+        Long next = jdbc.queryForObject("SELECT nextval('" + sequence + "')", Long.class);
+        // pooled ids: this call handed out the block ending at next, which must start above every existing id
+        if (maxId == null || next == null || next - PersistenceConfig.ID_BLOCK >= maxId) {
+            return;
+        }
+        long restart = maxId + PersistenceConfig.ID_BLOCK + 1;
+        jdbc.execute("ALTER SEQUENCE " + sequence + " RESTART WITH " + restart);
+        log.info("Restarted {} at {}, past the highest id in {}", sequence, restart, table);
+    }
+}
@@ -4,24 +4,37 @@ This class does the main logic of the applications pages and data, handling onbo
 
 package spring.demo.controller;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import jakarta.transaction.Transactional;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.RequiredArgsConstructor;
 import spring.demo.config.security.JwtService;
@@ -29,10 +42,23 @@ import spring.demo.models.*;
 import spring.demo.models.repository.IngredientRepository;
 import spring.demo.models.repository.RecipeRepository;
 import spring.demo.models.repository.UserRepository;
+import spring.demo.service.DashboardCache;
+import spring.demo.service.EntityCacheService;
+import spring.demo.service.GroceryListService;
+import spring.demo.service.IntakeService;
 import spring.demo.service.MealPlanService;
 import spring.demo.service.MealService;
+import spring.demo.service.PlanBusyException;
+import spring.demo.service.PlanContext;
+import spring.demo.service.PlanJob;
+import spring.demo.service.PlanJobService;
+import spring.demo.service.PlanLockService;
 import spring.demo.service.NutritionService;
 import spring.demo.service.PriceService;
+import spring.demo.service.ReadYourWrites;
+import spring.demo.service.MealPlanArchiver;
+import spring.demo.service.index.NameAutocomplete;
+import spring.demo.service.index.RecipeSearchIndex;
 
 @RestController
 @RequestMapping("/api")
@@ -47,19 +73,48 @@ public class MainController {
     private NutritionService nutritionService;
     private PriceService priceService;
     private MealPlanService mealPlanService;
+    private GroceryListService groceryListService;
+    private PlanJobService planJobService;
+    private PlanLockService planLockService;
+    private ExecutorService dashboardExecutor;
+    private DashboardCache dashboardCache;
+    private IntakeService intakeService;
+    private EntityCacheService entityCacheService;
+    private ReadYourWrites readYourWrites;
+    private MealPlanArchiver mealPlanArchiver;
+    private RecipeSearchIndex recipeSearchIndex;
+    private NameAutocomplete nameAutocomplete;
+    private ApplicationEventPublisher publisher;
 
     private IngredientRepository ingredientRepository;
     private RecipeRepository recipeRepository;
     private static final Logger log = LoggerFactory.getLogger(MainController.class);
 
-    private ArrayList<Recipe> recipieList = new ArrayList<Recipe>();
-    private ArrayList<Ingredient> priceList = new ArrayList<Ingredient>();
+    @Value("${plan.jobs.sse-timeout-ms:120000}")
+    private long sseTimeoutMs;
+
+    @Value("${meals.page-size:50}")
+    private int mealsPageSize;
+
+    @Value("${meals.max-page-size:200}")
+    private int mealsMaxPageSize;
+
+    @Value("${search.limit:20}")
+    private int searchLimit;
 
 
     @Autowired
     public MainController(UserRepository userRepository, JwtService jwtService, AuthenticationManager authenticationManager,
                           MealService mealService, NutritionService nutritionService,
-                          PriceService priceService, IngredientRepository ingredientRepository, RecipeRepository recipeRepository, MealPlanService mealPlanService) {
+                          PriceService priceService, IngredientRepository ingredientRepository, RecipeRepository recipeRepository, MealPlanService mealPlanService,
+                          GroceryListService groceryListService, PlanJobService planJobService,
+                          PlanLockService planLockService,
+                          @Qualifier("dashboardExecutor") ExecutorService dashboardExecutor,
+                          DashboardCache dashboardCache, IntakeService intakeService,
+                          EntityCacheService entityCacheService, ReadYourWrites readYourWrites,
+                          MealPlanArchiver mealPlanArchiver, RecipeSearchIndex recipeSearchIndex,
+                          NameAutocomplete nameAutocomplete,
+                          ApplicationEventPublisher publisher) {
         super();
         this.userRepository = userRepository;
         this.jwtService = jwtService;
@@ -70,13 +125,25 @@ public class MainController {
         this.ingredientRepository = ingredientRepository;
         this.recipeRepository = recipeRepository;
         this.mealPlanService = mealPlanService;
+        this.groceryListService = groceryListService;
+        this.planJobService = planJobService;
+        this.planLockService = planLockService;
+        this.dashboardExecutor = dashboardExecutor;
+        this.dashboardCache = dashboardCache;
+        this.intakeService = intakeService;
+        this.entityCacheService = entityCacheService;
+        this.readYourWrites = readYourWrites;
+        this.mealPlanArchiver = mealPlanArchiver;
+        this.recipeSearchIndex = recipeSearchIndex;
+        this.nameAutocomplete = nameAutocomplete;
+        this.publisher = publisher;
     }
 
     // Handles the inital onboarding of saving userPreferences, loading and sorting meals, providing them back to the user and saving all data
     @PostMapping("/onboarding")
-    @Transactional
-    public ResponseEntity<ArrayList> onboarding(@RequestBody UserPreference pref,
-                                                @AuthenticationPrincipal UserDetails userDetails)
+    public ResponseEntity<?> onboarding(@RequestBody UserPreference pref,
+                                        @AuthenticationPrincipal UserDetails userDetails,
+                                        @RequestParam(defaultValue = "false") boolean async)
             throws JsonProcessingException {
         String email = userDetails.getUsername();
 
@@ -85,60 +152,26 @@ public class MainController {
             return ResponseEntity.status(500).build();
         }
 
-        User user = userRepository.findByEmail(email)
-                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
-
         if(pref.getCalories() == 0 || pref.getBudget() == 0 || pref.getMeals() <= 1){
             return ResponseEntity.badRequest().build();
         }
 
-        user.setPreferences(pref);
-
-
-        // Return filtered list after onboarding
-        try {
-            recipieList = mealPlanService.loadandFilterRecipies(user, recipieList, priceList);
-        } catch (Exception e) {
-            log.error("ERROR in loadandFilterRecipies", e);
-            e.printStackTrace();
-            return ResponseEntity.status(500).build();
-        }
-
-        // Save new ingredients
-        if(!priceList.isEmpty()) {
-            log.info("Saving {} ingredients", priceList.size());
-            for (Ingredient ingredient : priceList) {
-                ingredientRepository.save(ingredient);
-            }
+        // Queue the plan and let the client poll for it
+        if (async) {
+            User user = userRepository.findByEmail(email)
+                    .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+            return submitPlanJob(user, pref);
         }
 
-        user.getGroceryList().clear();
-        user.getMealPlans().clear();
-
-        int MAX_MEAL_PLAN_SIZE = (user.getPreferences().getMeals() * 7);
-
-
-        if(recipieList.size() > MAX_MEAL_PLAN_SIZE){
-            recipieList = mealPlanService.filterRecipes(recipieList, MAX_MEAL_PLAN_SIZE,
-                    user.getPreferences().getCalories(), user.getPreferences().getMeals());
-        }
-
-        mealPlanService.findAndSaveMealPlan(user, recipieList, priceList);
-
-        userRepository.save(user);
-
-        if(recipieList.isEmpty() || recipieList.size() < 13){
-            return ResponseEntity.status(500).build();
-        }
-
-        log.info("=== ONBOARDING SUCCESS: Returning {} recipes ===", recipieList.size());
-        return ResponseEntity.ok(recipieList);
+        User user = userRepository.findByEmail(email)
+                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+        user.setPreferences(pref);
+        return generatePlan(user, pref);
     }
 
     @PostMapping("/meal-plans")
-    @Transactional
-    public ResponseEntity<ArrayList> newMealPlan(
-                                                @AuthenticationPrincipal UserDetails userDetails)
+    public ResponseEntity<?> newMealPlan(@AuthenticationPrincipal UserDetails userDetails,
+                                         @RequestParam(defaultValue = "false") boolean async)
             throws JsonProcessingException {
         String email = userDetails.getUsername();
 
@@ -147,70 +180,237 @@ public class MainController {
             return ResponseEntity.status(500).build();
         }
 
+        if (async) {
+            User user = userRepository.findByEmail(email)
+                    .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+            if (!hasPreferences(user)) {
+                return ResponseEntity.badRequest().build();
+            }
+            return submitPlanJob(user, null);
+        }
+
         User user = userRepository.findByEmail(email)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found"));
-
-        if(user.getPreferences().getMeals() == 0 || user.getPreferences().getBudget() == 0 || user.getPreferences().getCalories() == 0){
+        if (!hasPreferences(user)) {
             return ResponseEntity.badRequest().build();
         }
+        return generatePlan(user, null);
+    }
 
+    private boolean hasPreferences(User user) {
+        return user.getPreferences().getMeals() != 0 && user.getPreferences().getBudget() != 0
+                && user.getPreferences().getCalories() != 0;
+    }
 
-        // Return filtered list after onboarding
+    // Prices the candidates for the user's preferences with no transaction open, then replaces the plan under their plan lock.
+    // New preferences are saved with the plan when given (onboarding)
+    private ResponseEntity<?> generatePlan(User user, UserPreference pref) {
+        // Return filtered list after onboarding, built in a context owned by this request
+        PlanContext context = mealPlanService.newContext();
+        List<Recipe> candidates;
         try {
-            recipieList = mealPlanService.loadandFilterRecipies(user, recipieList, priceList);
+            candidates = mealPlanService.preparePlan(user, context);
         } catch (Exception e) {
             log.error("ERROR in loadandFilterRecipies", e);
             e.printStackTrace();
             return ResponseEntity.status(500).build();
         }
 
-        // Save new ingredients
-        if(!priceList.isEmpty()) {
-            log.info("Saving {} ingredients", priceList.size());
-            for (Ingredient ingredient : priceList) {
-                ingredientRepository.save(ingredient);
+        return locked(user.getEmail(), () -> {
+            User current = userRepository.findByEmail(user.getEmail())
+                    .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+            if (pref != null) {
+                current.setPreferences(pref);
             }
-        }
+            ArrayList<Recipe> recipieList = mealPlanService.savePlan(current, candidates, context);
 
-        user.getGroceryList().clear();
-        user.getMealPlans().clear();
+            if(recipieList.isEmpty() || recipieList.size() < 13){
+                return ResponseEntity.status(500).build();
+            }
 
-        int MAX_MEAL_PLAN_SIZE = (user.getPreferences().getMeals() * 7);
+            log.info("=== ONBOARDING SUCCESS: Returning {} recipes ===", recipieList.size());
+            return ResponseEntity.ok(RecipeSummary.of(recipieList));
+        });
+    }
 
+    //Returns the status and progress of a queued plan, with the recipes once it is done
+    @GetMapping("/meal-plans/jobs/{id}")
+    public ResponseEntity<?> planJob(@AuthenticationPrincipal UserDetails userDetails, @PathVariable String id) {
+        return planJobService.find(id, userDetails.getUsername())
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(404)
+                        .body(Map.of(
+                                "success", false,
+                                "error", "Plan job not found: " + id
+                        )));
+    }
 
-        if(recipieList.size() > MAX_MEAL_PLAN_SIZE){
-            recipieList = mealPlanService.filterRecipes(recipieList, MAX_MEAL_PLAN_SIZE,
-                    user.getPreferences().getCalories(), user.getPreferences().getMeals());
+    //Streams a queued plan's progress as server-sent events: one per pipeline stage, then "done" with the recipes or "failed"
+    @GetMapping("/meal-plans/jobs/{id}/events")
+    public ResponseEntity<SseEmitter> planJobEvents(@AuthenticationPrincipal UserDetails userDetails, @PathVariable String id) {
+        Optional<PlanJob> job = planJobService.find(id, userDetails.getUsername());
+        if (job.isEmpty()) {
+            return ResponseEntity.status(404).build();
         }
 
-        mealPlanService.findAndSaveMealPlan(user, recipieList, priceList);
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        Runnable unsubscribe = job.get().subscribe(event -> {
+            try {
+                emitter.send(SseEmitter.event()
+                        .name(event.name())
+                        .data(event.data(), MediaType.APPLICATION_JSON));
+                if (event.isTerminal()) {
+                    emitter.complete();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(e -> unsubscribe.run());
 
-        userRepository.save(user);
+        return ResponseEntity.ok(emitter);
+    }
 
-        if(recipieList.isEmpty() || recipieList.size() < 13){
-            return ResponseEntity.status(500).build();
+    // Runs a change to the user's plan under their plan lock, answering 409 when it can't get it in time or keeps conflicting.
+    // The cached dashboard is dropped once the change commits
+    private ResponseEntity<?> locked(String email, Supplier<ResponseEntity<?>> change) {
+        try {
+            return planLockService.mutate(email, () -> {
+                ResponseEntity<?> response = change.get();
+                publisher.publishEvent(new PlanChangedEvent(email));
+                return response;
+            });
+        } catch (PlanBusyException | OptimisticLockingFailureException e) {
+            log.warn("Rejecting plan change for {}: {}", email, e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of(
+                            "success", false,
+                            "error", "Another change to your meal plan is in progress, try again shortly"
+                    ));
         }
+    }
 
-        log.info("=== ONBOARDING SUCCESS: Returning {} recipes ===", recipieList.size());
-        return ResponseEntity.ok(recipieList);
+    //Returns how often plan changes waited on each other, timed out or were retried after a concurrent update
+    @GetMapping("/metrics/plan-locks")
+    public ResponseEntity<PlanLockService.Stats> planLockStats() {
+        return ResponseEntity.ok(planLockService.stats());
     }
 
-    @GetMapping("/load")
-    public ResponseEntity<?> loadDashboard(@AuthenticationPrincipal UserDetails userDetails) throws JsonProcessingException {
-        // Get user
+    //Returns the dashboard cache's hit ratio and how stale the dashboards it served were
+    @GetMapping("/metrics/dashboard-cache")
+    public ResponseEntity<DashboardCache.Stats> dashboardCacheStats() {
+        return ResponseEntity.ok(dashboardCache.stats());
+    }
+
+    //Returns the hit ratio and size of each recipe and ingredient cache region
+    @GetMapping("/metrics/entity-cache")
+    public ResponseEntity<List<EntityCacheService.RegionStats>> entityCacheStats() {
+        return ResponseEntity.ok(entityCacheService.stats());
+    }
+
+    //Returns how many read-only transactions went to the replica and how many were kept on the primary for read-your-writes
+    @GetMapping("/metrics/datasource-routing")
+    public ResponseEntity<ReadYourWrites.Stats> datasourceRoutingStats() {
+        return ResponseEntity.ok(readYourWrites.stats());
+    }
+
+    //Returns how many eaten meals were moved out of the live plans, inline and by the sweep
+    @GetMapping("/metrics/plan-archive")
+    public ResponseEntity<MealPlanArchiver.Stats> planArchiveStats() {
+        return ResponseEntity.ok(mealPlanArchiver.stats());
+    }
+
+    //Returns the user's eaten calories, macros and cost for each day of the last week or month
+    @GetMapping("/stats/intake")
+    @Transactional(readOnly = true)
+    public ResponseEntity<?> intakeStats(@RequestParam(defaultValue = "week") String period,
+                                         @AuthenticationPrincipal UserDetails userDetails) {
+        if (!intakeService.isPeriod(period)) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of(
+                            "success", false,
+                            "error", "period must be week or month"
+                    ));
+        }
         User user = userRepository.findByEmail(userDetails.getUsername())
                 .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+        int target = user.getPreferences() == null ? 0 : user.getPreferences().getCalories();
+        return ResponseEntity.ok(intakeService.stats(user.getId(), period, target));
+    }
 
-        // Load all data
-        List<Recipe> selectedMeals = mealPlanService.selectMeals(userDetails, recipieList);
-        List<Recipe> randomMeals = mealPlanService.random();
-        List<Ingredient> groceryList = groceryList(userDetails);
+    // Queues plan generation, a duplicate submission gets the job already running for the user
+    private ResponseEntity<?> submitPlanJob(User user, UserPreference pref) {
+        try {
+            PlanJob job = planJobService.submit(user, pref);
+            return ResponseEntity.accepted()
+                    .body(Map.of(
+                            "jobId", job.getId(),
+                            "status", job.getStatus()
+                    ));
+        } catch (RejectedExecutionException e) {
+            log.warn("Plan job queue full, rejecting request for {}", user.getEmail());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of(
+                            "success", false,
+                            "error", "Too many meal plans are being generated, try again shortly"
+                    ));
+        }
+    }
+
+    // What /load reads while holding the plan lock: the user, today's meals and the reads started once the user was known
+    private record DashboardReads(long stamp, User user, List<Recipe> selectedMeals,
+                                  CompletableFuture<List<GroceryItem>> groceryList,
+                                  CompletableFuture<Integer> eatenToday) {
+    }
+
+    @GetMapping("/load")
+    public ResponseEntity<?> loadDashboard(@AuthenticationPrincipal UserDetails userDetails) throws JsonProcessingException {
+        String email = userDetails.getUsername();
+
+        // Served as built until the user's plan changes
+        Optional<DashboardData> cached = dashboardCache.get(email);
+        if (cached.isPresent()) {
+            return ResponseEntity.ok(cached.get());
+        }
+
+        // Get user once with their plan, the grocery and calorie reads run alongside picking today's meals,
+        // which may rewrite the plan so it takes the plan lock
+        DashboardReads reads;
+        try {
+            reads = planLockService.mutate(email, () -> {
+                long stamp = dashboardCache.stamp(email);
+                User user = userRepository.findWithMealPlansByEmail(email)
+                        .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+                Long userId = user.getId();
+                List<Recipe> selectedMeals = mealPlanService.selectMeals(user, List.of());
+                return new DashboardReads(stamp, user, selectedMeals,
+                        CompletableFuture.supplyAsync(() -> readYourWrites.readOnly(email,
+                                () -> ingredientRepository.findGroceryListByUserId(userId)), dashboardExecutor),
+                        CompletableFuture.supplyAsync(() -> readYourWrites.readOnly(email,
+                                () -> intakeService.caloriesOn(userId, LocalDate.now())), dashboardExecutor));
+            });
+        } catch (PlanBusyException | OptimisticLockingFailureException e) {
+            log.warn("Could not select meals for {}: {}", email, e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of(
+                            "success", false,
+                            "error", "Another change to your meal plan is in progress, try again shortly"
+                    ));
+        }
+
+        // Joined only after the lock's transaction let go of its connection
+        User user = reads.user();
+        List<RecipeSummary> selectedMeals = RecipeSummary.of(reads.selectedMeals());
+        List<RecipeSummary> randomMeals = dashboardCache.randomMeals(selectedMeals);
+        List<GroceryItem> groceryList = reads.groceryList().join();
+        Integer eatenToday = reads.eatenToday().join();
 
         Integer budget = (int) user.getPreferences().getBudget();
 
         // Calculate calorie stats (merged from getCalorieStats endpoint)
         int targetCalories = user.getPreferences().getCalories();
-        Integer eatenToday = recipeRepository.getTodayEatenCalories(user.getId());
         if (eatenToday == null) eatenToday = 0;
 
         int remaining = Math.max(targetCalories - eatenToday, 0);
@@ -226,6 +426,7 @@ public class MainController {
         DashboardData data = new DashboardData(selectedMeals, randomMeals, groceryList, progress,
                 budget, eatenToday, targetCalories, remaining
         );
+        dashboardCache.put(email, reads.stamp(), data);
 
         return ResponseEntity.ok(data);
     }
@@ -237,22 +438,24 @@ public class MainController {
         if (email == null) {
             log.warn("User details or email is null!");
         }
-        User user = userRepository.findByEmail(email)
-                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
 
         if(pref.getCalories() == 0 || pref.getBudget() == 0){
             return ResponseEntity.badRequest().build();
         }
 
-        // Update preferences
-        user.setPreferences(pref);
-        userRepository.save(user);
-        return ResponseEntity.ok().build();
+        return locked(email, () -> {
+            User user = userRepository.findByEmail(email)
+                    .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+
+            // Update preferences
+            user.setPreferences(pref);
+            userRepository.save(user);
+            return ResponseEntity.ok().build();
+        });
     }
 
     //Updates a specific meal to mark as eaten given a meal
     @PutMapping("/meals/updateMeal")
-    @Transactional
     public ResponseEntity<?> updateMeal(
             @AuthenticationPrincipal UserDetails userDetails,
             @RequestParam(required = true) String name) {
@@ -266,7 +469,11 @@ public class MainController {
         }
 
         String username = userDetails.getUsername();
+        return locked(username, () -> markEaten(username, name));
+    }
 
+    // Marks the first planned meal with this recipe as eaten, called with the user's plan lock held
+    private ResponseEntity<?> markEaten(String username, String name) {
         User user = userRepository.findByEmail(username)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found"));
 
@@ -279,8 +486,10 @@ public class MainController {
 
         if (mealPlanToMark.isPresent()) {
             UserMealPlan mealPlan = mealPlanToMark.get();
+            LocalDate today = LocalDate.now();
             mealPlan.setEaten(true);
-            mealPlan.setEatenDate(LocalDate.now());
+            mealPlan.setEatenDate(today);
+            intakeService.recordMeal(user.getId(), mealPlan.getRecipe(), today);
 
             log.info("Marking planned meal as eaten: {}", mealPlan.getRecipe().getName());
             log.info("MealPlan ID: {}, Planned: {}, Eaten: {}",
@@ -307,24 +516,47 @@ public class MainController {
         }
     }
 
-    //Returns all user meals by fetching from DB, accepting a number of meals to return as well
+    //Returns one page of the user's meals in plan order, archived history included, the X-Next-Cursor header holds the cursor
+    //for the next page. Only the card fields are read, /meal has the full recipe. numIngredients is the old name of limit
     @GetMapping("/meals")
-    @Transactional
-    public ResponseEntity<List<Recipe>> meals(@AuthenticationPrincipal UserDetails userDetails, @RequestParam(required = false) Integer numIngredients) {
-        String email = userDetails.getUsername();
-        User user = userRepository.findByEmail(email)
+    @Transactional(readOnly = true)
+    public ResponseEntity<?> meals(@AuthenticationPrincipal UserDetails userDetails,
+                                   @RequestParam(required = false) String cursor,
+                                   @RequestParam(required = false) Integer limit,
+                                   @RequestParam(required = false) Integer numIngredients,
+                                   @RequestParam(required = false) String category,
+                                   @RequestParam(required = false) Boolean planned,
+                                   @RequestParam(required = false) Integer maxCalories) {
+        long after;
+        try {
+            after = cursor == null || cursor.isBlank() ? 0 : Long.parseLong(cursor);
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "error", "Invalid cursor: " + cursor));
+        }
+        Integer requested = limit != null ? limit : numIngredients;
+        int size = requested == null || requested <= 0 ? mealsPageSize : Math.min(requested, mealsMaxPageSize);
+
+        Long userId = userRepository.findIdByEmail(userDetails.getUsername())
                 .orElseThrow(() -> new UsernameNotFoundException("User not found"));
 
-        List<Recipe> userRecipes = recipeRepository.findRecipesByUserId(user.getId());
-        if(userRecipes.isEmpty()){
+        // one row past the page says whether there is a next one
+        List<PlannedRecipeSummary> rows = recipeRepository.findRecipeSummaryPage(userId, after,
+                category == null || category.isBlank() ? null : category.trim(), planned, maxCalories, Limit.of(size + 1));
+        if (rows.isEmpty() && after == 0) {
             return ResponseEntity.status(404).build();
         }
-        return ResponseEntity.ok(userRecipes);
+
+        List<PlannedRecipeSummary> page = rows.size() > size ? rows.subList(0, size) : rows;
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (rows.size() > size) {
+            response.header("X-Next-Cursor", Long.toString(page.get(page.size() - 1).planId()));
+        }
+        return response.body(page.stream().map(PlannedRecipeSummary::summary).toList());
     }
 
     //Returns more detailed meal data given a meal
     @GetMapping("/meal")
-    @Transactional
+    @Transactional(readOnly = true)
     public ResponseEntity<?> meal(
             @AuthenticationPrincipal UserDetails userDetails,
             @RequestParam(required = true) String name) {
@@ -337,34 +569,100 @@ public class MainController {
             return ResponseEntity.badRequest().body("Missing required parameter: name");
         }
 
-        Optional<Recipe> recipe = recipieList.stream()
-                .filter(r -> r.getName() != null && r.getName().equalsIgnoreCase(name))
-                .findFirst();
-
-        // Search DB if not found locally
-        if (recipe.isEmpty()) {
-            recipe = recipeRepository.findByNameIgnoreCase(name);
-        }
+        // the name index resolves the id so the row comes from the entity cache, names it doesn't know still go to the DB
+        Optional<Recipe> recipe = nameAutocomplete.recipeId(name).flatMap(recipeRepository::findById)
+                .or(() -> recipeRepository.findByNameIgnoreCase(name));
 
         if(!recipe.isEmpty())
             return ResponseEntity.ok(recipe.get());
         else return ResponseEntity.status(404).build();
     }
+    //Searches recipe names, categories, areas, tags and ingredients, best match first. Served from the in-memory index
+    @GetMapping("/recipes/search")
+    public ResponseEntity<?> searchRecipes(@RequestParam(required = false) String q,
+                                           @RequestParam(required = false) Integer limit) {
+        if (q == null || q.isBlank()) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "error", "Missing required parameter: q"));
+        }
+        int size = limit == null || limit <= 0 ? searchLimit : Math.min(limit, mealsMaxPageSize);
+        return ResponseEntity.ok(recipeSearchIndex.search(q, size));
+    }
+
+    //Completes recipe and ingredient names from any word in them, most popular first. Served from the in-memory index
+    @GetMapping("/autocomplete")
+    public ResponseEntity<?> autocomplete(@RequestParam(required = false) String prefix,
+                                          @RequestParam(required = false) Integer limit) {
+        if (prefix == null || prefix.isBlank()) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "error", "Missing required parameter: prefix"));
+        }
+        int size = limit == null || limit <= 0 ? NameAutocomplete.MAX_SUGGESTIONS : limit;
+        return ResponseEntity.ok(nameAutocomplete.complete(prefix, size));
+    }
+
+    //Returns the user's grocery list, projected from the rows and their ingredients in one query
     @GetMapping("/user/grocery-list")
-    public List<Ingredient> groceryList(@AuthenticationPrincipal UserDetails userDetails) {
+    @Transactional(readOnly = true)
+    public List<GroceryItem> groceryList(@AuthenticationPrincipal UserDetails userDetails) {
+        Long userId = userRepository.findIdByEmail(userDetails.getUsername())
+                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+
+        return ingredientRepository.findGroceryListByUserId(userId);
+    }
+
+    //Returns the grocery list with quantities summed across the plan, packages to buy and the total cost
+    @GetMapping("/user/shopping-list")
+    @Transactional(readOnly = true)
+    public ResponseEntity<ShoppingList> shoppingList(@AuthenticationPrincipal UserDetails userDetails) {
+        User user = userRepository.findByEmail(userDetails.getUsername())
+                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+
+        return ResponseEntity.ok(groceryListService.shoppingList(user));
+    }
+
+    //Swaps a planned meal for another recipe, patching only the grocery rows the two recipes touch
+    @PutMapping("/meal-plans/swap")
+    public ResponseEntity<?> swapMeal(
+            @AuthenticationPrincipal UserDetails userDetails,
+            @RequestParam(required = true) String current,
+            @RequestParam(required = true) String replacement) {
         String email = userDetails.getUsername();
+        return locked(email, () -> swap(email, current, replacement));
+    }
 
+    // Swaps the recipe of one unfinished meal, called with the user's plan lock held
+    private ResponseEntity<?> swap(String email, String current, String replacement) {
         User user = userRepository.findByEmail(email)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found"));
 
-        List<Ingredient> ingredients = user.getGroceryList().stream()
-                .map(UserIngredient::getIngredient)
-                .toList();
+        Optional<UserMealPlan> mealPlan = user.getMealPlans().stream()
+                .filter(plan -> plan.getRecipe() != null)
+                .filter(plan -> !Boolean.TRUE.equals(plan.isEaten()))
+                .filter(plan -> plan.getRecipe().getName().equalsIgnoreCase(current))
+                .findFirst();
 
-        if(ingredients.isEmpty()) {
-            return new ArrayList<>();
+        if (mealPlan.isEmpty()) {
+            return ResponseEntity.status(404)
+                    .body(Map.of(
+                            "success", false,
+                            "error", "Planned meal not found for recipe: " + current
+                    ));
         }
 
-        return ingredients;
+        Optional<Recipe> added = recipeRepository.findByNameIgnoreCase(replacement);
+        if (added.isEmpty()) {
+            return ResponseEntity.status(404)
+                    .body(Map.of(
+                            "success", false,
+                            "error", "Recipe not found: " + replacement
+                    ));
+        }
+
+        Recipe removed = mealPlan.get().getRecipe();
+        mealPlan.get().setRecipe(added.get());
+        groceryListService.swapRecipe(user, removed, added.get());
+        userRepository.save(user);
+
+        log.info("Swapped {} for {}", removed.getName(), added.get().getName());
+        return ResponseEntity.ok(groceryListService.shoppingList(user));
     }
 }
@@ -18,6 +18,7 @@ import spring.demo.models.Ingredient;
 import spring.demo.models.Recipe;
 import spring.demo.models.repository.RecipeRepository;
 import spring.demo.models.repository.UserRepository;
+import spring.demo.service.EntityCacheService;
 import spring.demo.service.MealService;
 import spring.demo.service.NutritionService;
 import spring.demo.service.PriceService;
@@ -28,16 +29,18 @@ public class TempController{
 
 private NutritionService nutritionService;
 private RecipeRepository recipeRepository;
+private EntityCacheService entityCacheService;
 private static final Logger log = LoggerFactory.getLogger(MainController.class);
 
 
 
 @Autowired
 public TempController( NutritionService nutritionService,
-                       RecipeRepository recipeRepository) {
+                       RecipeRepository recipeRepository, EntityCacheService entityCacheService) {
     super();
     this.nutritionService = nutritionService;
     this.recipeRepository = recipeRepository;
+    this.entityCacheService = entityCacheService;
 }
 
 public void updateAllRecipeCalories() throws Exception {
@@ -84,6 +87,8 @@ public void updateAllRecipeCalories() throws Exception {
 public ResponseEntity<Map<String, Object>> updateRecipeCalories(@AuthenticationPrincipal UserDetails userDetails) {
     try {
         updateAllRecipeCalories();
+        // other nodes' cached recipes only catch up when they expire, this one starts over now
+        entityCacheService.evictRecipes();
 
         Map<String, Object> response = new HashMap<>();
         response.put("status", "success");
@@ -147,6 +152,7 @@ public ResponseEntity<Map<String, Object>> updateRecipeMealCosts(
         System.out.println("User " + userDetails.getUsername() + " triggered meal cost update");
 
         updateAllRecipeMealCosts();
+        entityCacheService.evictRecipes();
 
         Map<String, Object> response = new HashMap<>();
         response.put("status", "success");
@@ -244,6 +250,9 @@ public ResponseEntity<Map<String, Object>> updateRecipeMealCosts(
             }
 
             log.info("Import complete: {} updated, {} not found, {} skipped", updated, notFound, skipped);
+            if (updated > 0) {
+                entityCacheService.evictRecipes();
+            }
 
             Map<String, Object> response = new HashMap<>();
             response.put("status", "success");
@@ -0,0 +1,56 @@
+package spring.demo.models; // a meal plan row that was eaten and unplanned, moved out of user_meal_plans so the live plan stays small
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(
+        name = "user_meal_plan_archive",
+        indexes = {
+                @Index(name = "idx_umpa_user_eaten_date", columnList = "user_id, eaten_date"),
+                @Index(name = "idx_umpa_user_id_id", columnList = "user_id, id")
+        }
+)
+public class ArchivedMealPlan {
+
+    // the id the row had in user_meal_plans, so moving a row twice is a no-op
+    @Id
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "recipe_id", nullable = false)
+    private Long recipeId;
+
+    @Column(name = "eaten_date")
+    private LocalDate eatenDate;
+
+    @Column(name = "archived_at", nullable = false)
+    private LocalDateTime archivedAt;
+
+    public ArchivedMealPlan() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getRecipeId() {
+        return recipeId;
+    }
+
+    public LocalDate getEatenDate() {
+        return eatenDate;
+    }
+
+    public LocalDateTime getArchivedAt() {
+        return archivedAt;
+    }
+}
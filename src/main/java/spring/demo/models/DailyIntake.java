@@ -0,0 +1,84 @@
+package spring.demo.models; // one row per user and day with the totals of the meals they marked eaten, so stats never rescan the plan history
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+
+@Entity
+@Table(
+        name = "daily_intake",
+        uniqueConstraints = @UniqueConstraint(name = "uk_daily_intake_user_date", columnNames = {"user_id", "intake_date"})
+)
+public class DailyIntake {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "intake_date", nullable = false)
+    private LocalDate date;
+
+    private int calories;
+    private int protein;
+    private int carbohydrate;
+    private int fat;
+    private double cost;
+    private int meals;
+
+    public DailyIntake() {
+    }
+
+    public DailyIntake(Long userId, LocalDate date) {
+        this.userId = userId;
+        this.date = date;
+    }
+
+    // Adds one eaten meal to the day's totals
+    public void add(Recipe recipe) {
+        calories += recipe.getCalories();
+        protein += recipe.getProtein();
+        carbohydrate += recipe.getCarbohydrate();
+        fat += recipe.getFat();
+        cost += recipe.getMealCost() == null ? 0 : recipe.getMealCost();
+        meals++;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public int getCalories() {
+        return calories;
+    }
+
+    public int getProtein() {
+        return protein;
+    }
+
+    public int getCarbohydrate() {
+        return carbohydrate;
+    }
+
+    public int getFat() {
+        return fat;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    public int getMeals() {
+        return meals;
+    }
+}
@@ -4,9 +4,9 @@ import java.util.List;
 
 
 public class DashboardData {
-    private List<Recipe> selectedMeals;
-    private List<Recipe> randomMeals;
-    private List<Ingredient> groceryList;
+    private List<RecipeSummary> selectedMeals;
+    private List<RecipeSummary> randomMeals;
+    private List<GroceryItem> groceryList;
     private Integer progress;
     private Integer budget;
     private int eaten; //total eaten
@@ -16,7 +16,7 @@ public class DashboardData {
 
 
     // Constructor, getters, setters
-    public DashboardData(List<Recipe> selectedMeals, List<Recipe> randomMeals, List<Ingredient>
+    public DashboardData(List<RecipeSummary> selectedMeals, List<RecipeSummary> randomMeals, List<GroceryItem>
             groceryList, Integer progress, Integer budget, int eaten, int target, int remaining) {
         this.selectedMeals = selectedMeals;
         this.randomMeals = randomMeals;
@@ -28,9 +28,14 @@ public class DashboardData {
         this.remaining = remaining;
     }
 
-    public List<Recipe> getSelectedMeals() { return selectedMeals; }
-    public List<Recipe> getRandomMeals() { return randomMeals; }
-    public List<Ingredient> getGroceryList() { return groceryList; }
+    // The same dashboard with other random picks, so a cached one can be served with the current ones
+    public DashboardData withRandomMeals(List<RecipeSummary> randomMeals) {
+        return new DashboardData(selectedMeals, randomMeals, groceryList, progress, budget, eaten, target, remaining);
+    }
+
+    public List<RecipeSummary> getSelectedMeals() { return selectedMeals; }
+    public List<RecipeSummary> getRandomMeals() { return randomMeals; }
+    public List<GroceryItem> getGroceryList() { return groceryList; }
     public Integer getProgress() { return progress; }
     public Integer getBudget() { return budget; }
     public int getEaten() {
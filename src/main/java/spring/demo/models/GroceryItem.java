@@ -0,0 +1,11 @@
+package spring.demo.models;
+
+// One grocery list row joined with its ingredient, read straight from a projection query.
+// Field names match the ingredient JSON the list used to return
+public record GroceryItem(Long id, String name, Double totalPrice, String imageUrl, String productUrl, Boolean purchased) {
+
+    public GroceryItem {
+        totalPrice = totalPrice == null ? 0.0 : totalPrice;
+        purchased = Boolean.TRUE.equals(purchased);
+    }
+}
@@ -1,5 +1,6 @@
 package spring.demo.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import jakarta.persistence.GenerationType;
@@ -9,6 +10,9 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import spring.demo.config.EntityCacheConfig;
 
 import java.time.LocalDateTime;
 
@@ -23,6 +27,8 @@ import java.time.LocalDateTime;
         }
 )
 @NoArgsConstructor
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = EntityCacheConfig.INGREDIENTS)
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 public class Ingredient {
 
@@ -49,6 +55,15 @@ public class Ingredient {
     private String servingSize;
     private String servingsPerContainer; //servings in container
 
+    // servingsPerContainer normalized when written, see QuantityParser
+    @JsonIgnore
+    @Column(name = "package_amount")
+    private Double packageAmount;
+    @JsonIgnore
+    @Enumerated(EnumType.STRING)
+    @Column(name = "package_dimension")
+    private UnitDimension packageDimension;
+
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
@@ -58,18 +73,30 @@ public class Ingredient {
     @Column(name = "cache_expires_at")
     private LocalDateTime cacheExpiresAt;
 
+    // days a fetched price is trusted before it is looked up again
+    public static final int CACHE_DAYS = 14;
+
     //Save and update before persisting
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
         updatedAt = LocalDateTime.now();
-        cacheExpiresAt = LocalDateTime.now().plusDays(14);
+        cacheExpiresAt = LocalDateTime.now().plusDays(CACHE_DAYS);
     }
 
     @PreUpdate
     protected void onUpdate() {
         updatedAt = LocalDateTime.now();
-        cacheExpiresAt = LocalDateTime.now().plusDays(14); // Reset TTL on update
+        cacheExpiresAt = LocalDateTime.now().plusDays(CACHE_DAYS); // Reset TTL on update
+    }
+
+    // The same timestamps for rows written outside JPA, see PricedIngredientWriter
+    public void stampWrite(LocalDateTime now) {
+        if (createdAt == null) {
+            createdAt = now;
+        }
+        updatedAt = now;
+        cacheExpiresAt = now.plusDays(CACHE_DAYS);
     }
 
     public boolean isCacheValid() {
@@ -77,7 +104,7 @@ public class Ingredient {
     }
 
     public double getTotalPrice() {
-        return totalPrice;
+        return totalPrice == null ? 0 : totalPrice;
     }
 
     // Per 100g serving
@@ -135,6 +162,26 @@ public class Ingredient {
         return servingsPerContainer;
     }
 
+    public void setServingsPerContainer(String servingsPerContainer) {
+        this.servingsPerContainer = servingsPerContainer;
+        normalizePackage();
+    }
+
+    // Rows saved before package sizes were normalized are parsed once, on first use
+    @JsonIgnore
+    public Quantity getPackageQuantity() {
+        if (packageDimension == null || packageAmount == null) {
+            normalizePackage();
+        }
+        return new Quantity(packageAmount, packageDimension);
+    }
+
+    private void normalizePackage() {
+        Quantity quantity = QuantityParser.parse(servingsPerContainer);
+        this.packageAmount = quantity.amount();
+        this.packageDimension = quantity.dimension();
+    }
+
     public void setPrice(double v) {
         this.totalPrice = v;
     }
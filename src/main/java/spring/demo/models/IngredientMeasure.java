@@ -0,0 +1,58 @@
+package spring.demo.models; // one ingredient of a recipe: the measure as written plus its normalized quantity, stored in the recipe's JSON column
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Objects;
+
+// serialized field by field so the stored document stays {"measure", "amount", "dimension"}
+@JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY,
+        getterVisibility = JsonAutoDetect.Visibility.NONE,
+        isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IngredientMeasure {
+
+    private String measure;
+
+    private Double amount;
+
+    private UnitDimension dimension;
+
+    protected IngredientMeasure() {
+    }
+
+    public IngredientMeasure(String measure) {
+        this.measure = measure;
+        normalize();
+    }
+
+    public String getMeasure() {
+        return measure;
+    }
+
+    // Entries written before quantities were stored are normalized once, on first use
+    public Quantity getQuantity() {
+        if (dimension == null || amount == null) {
+            normalize();
+        }
+        return new Quantity(amount, dimension);
+    }
+
+    private void normalize() {
+        Quantity quantity = QuantityParser.parse(measure);
+        this.amount = quantity.amount();
+        this.dimension = quantity.dimension();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IngredientMeasure other)) return false;
+        return Objects.equals(measure, other.measure);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(measure);
+    }
+}
@@ -0,0 +1,11 @@
+package spring.demo.models;
+
+import java.time.LocalDate;
+
+// A day's eaten totals as the stats endpoint returns them, days without a rollup row are all zeros
+public record IntakeDay(LocalDate date, int calories, int protein, int carbohydrate, int fat, double cost, int meals) {
+
+    public static IntakeDay empty(LocalDate date) {
+        return new IntakeDay(date, 0, 0, 0, 0, 0, 0);
+    }
+}
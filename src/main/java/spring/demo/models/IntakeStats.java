@@ -0,0 +1,10 @@
+package spring.demo.models;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// GET /api/stats/intake: one entry per day of the period, the period's totals and the daily averages against the user's target
+public record IntakeStats(String period, LocalDate from, LocalDate to, List<IntakeDay> days,
+                          int calories, int protein, int carbohydrate, int fat, double cost, int meals,
+                          double averageCalories, double averageCost, int targetCalories) {
+}
@@ -0,0 +1,5 @@
+package spring.demo.models;
+
+// Published inside the transaction that changed a user's plan, preferences or grocery list
+public record PlanChangedEvent(String email) {
+}
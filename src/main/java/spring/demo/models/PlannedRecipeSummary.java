@@ -0,0 +1,9 @@
+package spring.demo.models; // a recipe card with the id of the plan row it came from, which /api/meals pages on
+
+public record PlannedRecipeSummary(long planId, long id, String name, String category, String thumbnail,
+                                   int calories, int protein, int carbohydrate, int fat, Double mealCost) {
+
+    public RecipeSummary summary() {
+        return new RecipeSummary(id, name, category, thumbnail, calories, protein, carbohydrate, fat, mealCost);
+    }
+}
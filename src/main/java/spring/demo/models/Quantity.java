@@ -0,0 +1,27 @@
+package spring.demo.models;
+
+// A normalized amount: grams for MASS, millilitres for VOLUME, items for COUNT
+public record Quantity(double amount, UnitDimension dimension) {
+
+    public static final Quantity NONE = new Quantity(0, UnitDimension.UNKNOWN);
+
+    private static final double ML_PER_TSP = 4.92892;
+
+    public boolean isMeasured() {
+        return dimension == UnitDimension.MASS || dimension == UnitDimension.VOLUME;
+    }
+
+    // Mass and volume convert at the density of water, which is close enough for pricing groceries;
+    // counts and unparsed amounts have no weight, so they convert to 0
+    public double toGrams() {
+        return isMeasured() ? amount : 0;
+    }
+
+    public double toMilliliters() {
+        return isMeasured() ? amount : 0;
+    }
+
+    public double toTeaspoons() {
+        return dimension == UnitDimension.VOLUME ? amount / ML_PER_TSP : amount;
+    }
+}
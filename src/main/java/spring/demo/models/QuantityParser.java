@@ -0,0 +1,215 @@
+/*
+Single pass scanner for recipe measures ("1 1/2 cups", "200g", "½ tsp") and package sizes ("6 x 355 ml", "1 lb 8 oz").
+It runs when recipes and ingredients are written, so cost calculation only ever reads the normalized result.
+ */
+
+package spring.demo.models;
+
+public final class QuantityParser {
+
+    private record Unit(String name, UnitDimension dimension, double factor) {
+    }
+
+    // unit words, factor converts to grams / millilitres / items
+    private static final Unit[] UNITS = {
+            new Unit("g", UnitDimension.MASS, 1), new Unit("gr", UnitDimension.MASS, 1),
+            new Unit("gram", UnitDimension.MASS, 1), new Unit("grams", UnitDimension.MASS, 1),
+            new Unit("gramme", UnitDimension.MASS, 1), new Unit("grammes", UnitDimension.MASS, 1),
+            new Unit("mg", UnitDimension.MASS, 0.001),
+            new Unit("kg", UnitDimension.MASS, 1000), new Unit("kgs", UnitDimension.MASS, 1000),
+            new Unit("kilo", UnitDimension.MASS, 1000), new Unit("kilos", UnitDimension.MASS, 1000),
+            new Unit("kilogram", UnitDimension.MASS, 1000), new Unit("kilograms", UnitDimension.MASS, 1000),
+            new Unit("oz", UnitDimension.MASS, 28.3495), new Unit("ounce", UnitDimension.MASS, 28.3495),
+            new Unit("ounces", UnitDimension.MASS, 28.3495),
+            new Unit("lb", UnitDimension.MASS, 453.592), new Unit("lbs", UnitDimension.MASS, 453.592),
+            new Unit("pound", UnitDimension.MASS, 453.592), new Unit("pounds", UnitDimension.MASS, 453.592),
+
+            new Unit("ml", UnitDimension.VOLUME, 1), new Unit("mls", UnitDimension.VOLUME, 1),
+            new Unit("millilitre", UnitDimension.VOLUME, 1), new Unit("millilitres", UnitDimension.VOLUME, 1),
+            new Unit("milliliter", UnitDimension.VOLUME, 1), new Unit("milliliters", UnitDimension.VOLUME, 1),
+            new Unit("cl", UnitDimension.VOLUME, 10), new Unit("dl", UnitDimension.VOLUME, 100),
+            new Unit("l", UnitDimension.VOLUME, 1000), new Unit("ltr", UnitDimension.VOLUME, 1000),
+            new Unit("litre", UnitDimension.VOLUME, 1000), new Unit("litres", UnitDimension.VOLUME, 1000),
+            new Unit("liter", UnitDimension.VOLUME, 1000), new Unit("liters", UnitDimension.VOLUME, 1000),
+            new Unit("tsp", UnitDimension.VOLUME, 4.92892), new Unit("tsps", UnitDimension.VOLUME, 4.92892),
+            new Unit("teaspoon", UnitDimension.VOLUME, 4.92892), new Unit("teaspoons", UnitDimension.VOLUME, 4.92892),
+            new Unit("tbsp", UnitDimension.VOLUME, 14.7868), new Unit("tbsps", UnitDimension.VOLUME, 14.7868),
+            new Unit("tbs", UnitDimension.VOLUME, 14.7868), new Unit("tblsp", UnitDimension.VOLUME, 14.7868),
+            new Unit("tbl", UnitDimension.VOLUME, 14.7868),
+            new Unit("tablespoon", UnitDimension.VOLUME, 14.7868), new Unit("tablespoons", UnitDimension.VOLUME, 14.7868),
+            new Unit("cup", UnitDimension.VOLUME, 240), new Unit("cups", UnitDimension.VOLUME, 240),
+            new Unit("pint", UnitDimension.VOLUME, 473.176), new Unit("pints", UnitDimension.VOLUME, 473.176),
+            new Unit("quart", UnitDimension.VOLUME, 946.353), new Unit("quarts", UnitDimension.VOLUME, 946.353),
+            new Unit("qt", UnitDimension.VOLUME, 946.353),
+            new Unit("gal", UnitDimension.VOLUME, 3785.41), new Unit("gallon", UnitDimension.VOLUME, 3785.41),
+            new Unit("gallons", UnitDimension.VOLUME, 3785.41),
+            new Unit("pinch", UnitDimension.VOLUME, 0.31), new Unit("dash", UnitDimension.VOLUME, 0.62),
+
+            new Unit("ct", UnitDimension.COUNT, 1), new Unit("count", UnitDimension.COUNT, 1),
+            new Unit("pk", UnitDimension.COUNT, 1), new Unit("pack", UnitDimension.COUNT, 1),
+            new Unit("each", UnitDimension.COUNT, 1), new Unit("ea", UnitDimension.COUNT, 1)
+    };
+
+    private static final double FLUID_OUNCE_ML = 29.5735;
+
+    private QuantityParser() {
+    }
+
+    public static Quantity parse(String text) {
+        if (text == null) return Quantity.NONE;
+
+        int n = text.length();
+        int i = 0;
+
+        double total = 0;
+        UnitDimension dimension = null;
+        double multiplier = 1;
+        double pending = Double.NaN;   // number read but not yet attached to a unit
+        boolean fluid = false;         // saw "fl"/"fluid", so the next ounce is a volume
+
+        while (i < n) {
+            char c = text.charAt(i);
+
+            if (isDigit(c) || (c == '.' && i + 1 < n && isDigit(text.charAt(i + 1))) || vulgar(c) > 0) {
+                // number: integer, decimal, a/b, unicode fraction, or a mix such as "1 1/2" / "1½"
+                double value = 0;
+                boolean fraction = false;
+                if (vulgar(c) > 0) {
+                    value = vulgar(c);
+                    fraction = true;
+                    i++;
+                } else {
+                    while (i < n && isDigit(text.charAt(i))) {
+                        value = value * 10 + (text.charAt(i) - '0');
+                        i++;
+                    }
+                    if (i < n && text.charAt(i) == '.' && i + 1 < n && isDigit(text.charAt(i + 1))) {
+                        i++;
+                        double scale = 0.1;
+                        while (i < n && isDigit(text.charAt(i))) {
+                            value += (text.charAt(i) - '0') * scale;
+                            scale /= 10;
+                            i++;
+                        }
+                    }
+                    if (i + 1 < n && text.charAt(i) == '/' && isDigit(text.charAt(i + 1))) {
+                        i++;
+                        int denominator = 0;
+                        while (i < n && isDigit(text.charAt(i))) {
+                            denominator = denominator * 10 + (text.charAt(i) - '0');
+                            i++;
+                        }
+                        value = denominator == 0 ? 0 : value / denominator;
+                        fraction = true;
+                    }
+                    if (i < n && vulgar(text.charAt(i)) > 0) {
+                        value += vulgar(text.charAt(i));
+                        i++;
+                    }
+                }
+                // a range such as "2-3" keeps its lower bound
+                if (i + 1 < n && text.charAt(i) == '-' && isDigit(text.charAt(i + 1))) {
+                    i++;
+                    while (i < n && (isDigit(text.charAt(i)) || text.charAt(i) == '.' || text.charAt(i) == '/')) i++;
+                }
+
+                if (Double.isNaN(pending)) {
+                    pending = value;
+                } else if (fraction) {
+                    pending += value;                 // "1 1/2"
+                } else {
+                    multiplier *= pending;            // "2 400g tins"
+                    pending = value;
+                }
+                continue;
+            }
+
+            if (Character.isLetter(c)) {
+                int start = i;
+                while (i < n && Character.isLetter(text.charAt(i))) i++;
+                int length = i - start;
+
+                if (regionIs(text, start, length, "fl") || regionIs(text, start, length, "fluid")) {
+                    fluid = true;
+                    continue;
+                }
+                if (regionIs(text, start, length, "x") && !Double.isNaN(pending)) {
+                    multiplier *= pending;            // "6 x 355 ml"
+                    pending = Double.NaN;
+                    continue;
+                }
+
+                Unit unit = unit(text, start, length);
+                if (unit != null) {
+                    double amount = Double.isNaN(pending) ? 1 : pending;
+                    UnitDimension unitDimension = unit.dimension();
+                    double factor = unit.factor();
+                    if (fluid && unitDimension == UnitDimension.MASS && factor == 28.3495) {
+                        unitDimension = UnitDimension.VOLUME;
+                        factor = FLUID_OUNCE_ML;
+                    }
+                    if (dimension == null || dimension == unitDimension || compatible(dimension, unitDimension)) {
+                        if (dimension == null) dimension = unitDimension;
+                        total += amount * factor;
+                    }
+                    pending = Double.NaN;
+                }
+                fluid = false;
+                continue;
+            }
+
+            if (c == '×' && !Double.isNaN(pending)) {
+                multiplier *= pending;
+                pending = Double.NaN;
+            }
+            i++;
+        }
+
+        if (!Double.isNaN(pending)) {
+            if (dimension == null) {
+                dimension = UnitDimension.COUNT;
+                total = pending;
+            }
+        }
+        if (dimension == null) {
+            return Quantity.NONE;
+        }
+        return new Quantity(total * multiplier, dimension);
+    }
+
+    private static boolean compatible(UnitDimension a, UnitDimension b) {
+        return (a == UnitDimension.MASS || a == UnitDimension.VOLUME)
+                && (b == UnitDimension.MASS || b == UnitDimension.VOLUME);
+    }
+
+    private static Unit unit(String text, int start, int length) {
+        for (Unit unit : UNITS) {
+            if (regionIs(text, start, length, unit.name())) return unit;
+        }
+        return null;
+    }
+
+    private static boolean regionIs(String text, int start, int length, String word) {
+        return length == word.length() && text.regionMatches(true, start, word, 0, length);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static double vulgar(char c) {
+        return switch (c) {
+            case '½' -> 0.5;
+            case '⅓' -> 1.0 / 3;
+            case '⅔' -> 2.0 / 3;
+            case '¼' -> 0.25;
+            case '¾' -> 0.75;
+            case '⅕' -> 0.2;
+            case '⅛' -> 0.125;
+            case '⅜' -> 0.375;
+            case '⅝' -> 0.625;
+            case '⅞' -> 0.875;
+            default -> 0;
+        };
+    }
+}
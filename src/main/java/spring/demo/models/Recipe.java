@@ -1,11 +1,18 @@
 package spring.demo.models;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 import lombok.Setter;
+import spring.demo.config.EntityCacheConfig;
 
 @Data
 @Entity
@@ -17,6 +24,9 @@ indexes = {
     @Index(name = "idx_recipe_meal_cost", columnList = "mealCost"),
     @Index(name = "idx_recipe_calories_category", columnList = "calories, category")
     })
+@EntityListeners(RecipeWriteListener.class)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = EntityCacheConfig.RECIPES)
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 public class Recipe {
 
@@ -41,12 +51,12 @@ public class Recipe {
     private int servingSize;
     @Column(name = "meal_cost")
     private Double mealCost = 0.0;
-    @ElementCollection(fetch = FetchType.EAGER)
-    @CollectionTable(name = "recipe_ingredients",
-            joinColumns = @JoinColumn(name = "entity_id"))
-    @MapKeyColumn(name = "map_key")
-    @Column(name = "map_value")
-    private Map<String, String> ingredients; // ingredient -> measure
+    // one JSON document in the recipe row (jsonb on Postgres), so loading recipes never needs a second select.
+    // Rows from before the column existed are filled from recipe_ingredients by RecipeIngredientsMigration
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "ingredients")
+    @JsonIgnore
+    private Map<String, IngredientMeasure> measures = new LinkedHashMap<>(); // ingredient -> measure + normalized quantity
 
     // getters and setters
     public long getId() {
@@ -121,12 +131,27 @@ public class Recipe {
         this.youtube = youtube;
     }
 
+    // ingredient -> measure as written, the shape the frontend and the pricing code read
     public Map<String, String> getIngredients() {
+        Map<String, String> ingredients = new LinkedHashMap<>();
+        getMeasures().forEach((name, measure) -> ingredients.put(name, measure.getMeasure()));
         return ingredients;
     }
 
+    // Measures are parsed here, when the recipe is written, never when it is priced
     public void setIngredients(Map<String, String> ingredients) {
-        this.ingredients = ingredients;
+        if (this.measures == null) {
+            this.measures = new LinkedHashMap<>();
+        }
+        this.measures.clear();
+        if (ingredients != null) {
+            ingredients.forEach((name, measure) -> measures.put(name, new IngredientMeasure(measure)));
+        }
+    }
+
+    // empty rather than null for rows the migration hasn't reached yet
+    public Map<String, IngredientMeasure> getMeasures() {
+        return measures == null ? Map.of() : measures;
     }
 
     public int getCalories() {
@@ -171,133 +196,31 @@ public class Recipe {
 
 
     public int extract_weight(String ing) {
-        return (int) parseToGrams(ingredients.get(ing));
+        IngredientMeasure measure = getMeasures().get(ing);
+        // counted entries such as "2 chicken breasts" carry no weight
+        return measure == null ? 0 : (int) measure.getQuantity().toGrams();
     }
 
 
     public double sumWeight() {
         double sum = 0;
-        for (String ing : ingredients.keySet()) {
-            sum += (int) parseToGrams(ingredients.get(ing));
+        for (IngredientMeasure measure : getMeasures().values()) {
+            sum += (int) measure.getQuantity().toGrams();
         }
 
         return sum;
     }
 
     public double parseToTeaspoons(String amountStr) {
-        if (amountStr == null || amountStr.trim().isEmpty()) return 0;
-        amountStr = amountStr.trim().toLowerCase();
-
-        try {
-            // Teaspoons (already normalized)
-            if (amountStr.endsWith("tsp") || amountStr.endsWith("teaspoon") || amountStr.endsWith("teaspoons")) {
-                String numStr = amountStr.replaceAll("(tsp|teaspoon|teaspoons)", "").trim();
-                return Double.parseDouble(numStr);
-            }
-            // Tablespoons (1 tbsp = 3 tsp)
-            else if (amountStr.endsWith("tbs") || amountStr.endsWith("tbsp") ||
-                    amountStr.endsWith("tablespoon") || amountStr.endsWith("tablespoons") ||
-                    amountStr.endsWith("tblsp")) {
-                String numStr = amountStr.replaceAll("(tbs|tbsp|tablespoon|tablespoons|tblsp)", "").trim();
-                return Double.parseDouble(numStr) * 3.0;
-            }
-            // If no recognized unit, try to extract and return just the number
-            else {
-                String numStr = amountStr.replaceAll("[^0-9.]", "").trim();
-                return numStr.isEmpty() ? 0 : Double.parseDouble(numStr);
-            }
-        } catch (NumberFormatException e) {
-            // Fallback: try to extract just the numeric part
-            try {
-                String numStr = amountStr.replaceAll("[^0-9.]", "").trim();
-                return numStr.isEmpty() ? 0 : Double.parseDouble(numStr);
-            } catch (NumberFormatException ex) {
-                return 0;
-            }
-        }
+        return QuantityParser.parse(amountStr).toTeaspoons();
     }
 
     public double parseToMilliliters(String amountStr) {
-        if (amountStr == null || amountStr.trim().isEmpty()) return 0;
-        amountStr = amountStr.trim().toLowerCase();
-
-        try {
-            // Milliliters (already normalized)
-            if (amountStr.endsWith("ml") || amountStr.endsWith("milliliter") || amountStr.endsWith("milliliters")) {
-                String numStr = amountStr.replaceAll("(ml|milliliter|milliliters)", "").trim();
-                return Double.parseDouble(numStr);
-            }
-            // Liters (1 l = 1000 ml)
-            else if (amountStr.endsWith("l") || amountStr.endsWith("liter") ||
-                    amountStr.endsWith("liters") || amountStr.endsWith("litre") ||
-                    amountStr.endsWith("litres")) {
-                String numStr = amountStr.replaceAll("(l|liter|liters|litre|litres)$", "").trim();
-                return Double.parseDouble(numStr) * 1000.0;
-            }
-            // Fluid ounces (1 fl oz = 29.5735 ml)
-            else if (amountStr.contains("fl oz") || amountStr.contains("fluid ounce") ||
-                    amountStr.contains("fluid ounces")) {
-                String numStr = amountStr.replaceAll("(fl oz|fluid ounce|fluid ounces)", "").trim();
-                return Double.parseDouble(numStr) * 29.5735;
-            }
-            // If no recognized unit, try to extract and return just the number
-            else {
-                String numStr = amountStr.replaceAll("[^0-9.]", "").trim();
-                return numStr.isEmpty() ? 0 : Double.parseDouble(numStr);
-            }
-        } catch (NumberFormatException e) {
-            // Fallback: try to extract just the numeric part
-            try {
-                String numStr = amountStr.replaceAll("[^0-9.]", "").trim();
-                return numStr.isEmpty() ? 0 : Double.parseDouble(numStr);
-            } catch (NumberFormatException ex) {
-                return 0;
-            }
-        }
+        return QuantityParser.parse(amountStr).toMilliliters();
     }
 
     public double parseToGrams(String amountStr) {
-        if (amountStr == null || amountStr.trim().isEmpty()) return 0;
-        amountStr = amountStr.trim().toLowerCase();
-
-        try {
-            // Grams (already normalized)
-            if (amountStr.endsWith("g") && !amountStr.endsWith("kg")) {
-                String numStr = amountStr.replaceAll("g$", "").trim();
-                return Double.parseDouble(numStr);
-            }
-            // Kilograms (1 kg = 1000 g)
-            else if (amountStr.endsWith("kg") || amountStr.endsWith("kilogram") ||
-                    amountStr.endsWith("kilograms")) {
-                String numStr = amountStr.replaceAll("(kg|kilogram|kilograms)", "").trim();
-                return Double.parseDouble(numStr) * 1000.0;
-            }
-            // Ounces (1 oz = 28.3495 g)
-            else if (amountStr.endsWith("oz") || amountStr.endsWith("ounce") ||
-                    amountStr.endsWith("ounces")) {
-                String numStr = amountStr.replaceAll("(oz|ounce|ounces)", "").trim();
-                return Double.parseDouble(numStr) * 28.3495;
-            }
-            // Pounds (1 lb = 453.592 g)
-            else if (amountStr.endsWith("lb") || amountStr.endsWith("lbs") ||
-                    amountStr.endsWith("pound") || amountStr.endsWith("pounds")) {
-                String numStr = amountStr.replaceAll("(lb|lbs|pound|pounds)", "").trim();
-                return Double.parseDouble(numStr) * 453.592;
-            }
-            // If no recognized unit, try to extract and return just the number
-            else {
-                String numStr = amountStr.replaceAll("[^0-9.]", "").trim();
-                return numStr.isEmpty() ? 0 : Double.parseDouble(numStr);
-            }
-        } catch (NumberFormatException e) {
-            // Fallback: try to extract just the numeric part
-            try {
-                String numStr = amountStr.replaceAll("[^0-9.]", "").trim();
-                return numStr.isEmpty() ? 0 : Double.parseDouble(numStr);
-            } catch (NumberFormatException ex) {
-                return 0;
-            }
-        }
+        return QuantityParser.parse(amountStr).toGrams();
     }
 
 
@@ -0,0 +1,17 @@
+package spring.demo.models;
+
+import java.util.List;
+
+// What a recipe card needs, returned by list endpoints in place of the full recipe; /api/meal has the rest
+public record RecipeSummary(long id, String name, String category, String thumbnail,
+                            int calories, int protein, int carbohydrate, int fat, Double mealCost) {
+
+    public static RecipeSummary of(Recipe recipe) {
+        return new RecipeSummary(recipe.getId(), recipe.getName(), recipe.getCategory(), recipe.getThumbnail(),
+                recipe.getCalories(), recipe.getProtein(), recipe.getCarbohydrate(), recipe.getFat(), recipe.getMealCost());
+    }
+
+    public static List<RecipeSummary> of(List<Recipe> recipes) {
+        return recipes.stream().map(RecipeSummary::of).toList();
+    }
+}
@@ -0,0 +1,4 @@
+package spring.demo.models; // how many plan rows, live or archived, point at a recipe
+
+public record RecipeUses(long recipeId, long uses) {
+}
@@ -0,0 +1,22 @@
+package spring.demo.models; // JPA listener that announces recipe writes so the in-memory indexes stay current
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.List;
+
+public class RecipeWriteListener {
+
+    @Autowired
+    private ApplicationEventPublisher publisher;
+
+    @PostPersist
+    @PostUpdate
+    public void onWrite(Recipe recipe) {
+        if (publisher != null) {
+            publisher.publishEvent(new RecipeWrittenEvent(List.of(recipe)));
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package spring.demo.models;
+
+import java.util.List;
+
+// Published whenever recipes are inserted or updated, and once with the whole catalog at startup
+public record RecipeWrittenEvent(List<Recipe> recipes) {
+}
@@ -0,0 +1,28 @@
+package spring.demo.models;
+
+import java.util.List;
+
+// The user's grocery list with quantities summed across the week's recipes, and what it costs in total
+public class ShoppingList {
+
+    // One line of the list: what the plan needs, and how many packages cover it
+    public record Item(String name, double requiredAmount, double requiredCount, String packageSize,
+                       int packages, double packagePrice, double cost, String imageUrl, String productUrl) {
+    }
+
+    private final List<Item> items;
+    private final double totalCost;
+
+    public ShoppingList(List<Item> items) {
+        this.items = items;
+        this.totalCost = Math.round(items.stream().mapToDouble(Item::cost).sum() * 100) / 100.0;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public double getTotalCost() {
+        return totalCost;
+    }
+}
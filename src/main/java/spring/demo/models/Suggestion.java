@@ -0,0 +1,4 @@
+package spring.demo.models; // one type-ahead completion, recipeId is set for recipe names and null for ingredient names
+
+public record Suggestion(String name, Long recipeId, long popularity) {
+}
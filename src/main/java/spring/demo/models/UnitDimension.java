@@ -0,0 +1,8 @@
+package spring.demo.models; // what a normalized quantity measures: grams, millilitres, or a plain count
+
+public enum UnitDimension {
+    MASS,
+    VOLUME,
+    COUNT,
+    UNKNOWN
+}
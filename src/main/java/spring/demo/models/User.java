@@ -10,6 +10,7 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -41,6 +42,11 @@ public class User implements UserDetails {
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<UserIngredient> groceryList = new ArrayList<>();
 
+    // optimistic check for changes made on another node, existing rows start at 0 when the column is added
+    @Version
+    @ColumnDefault("0")
+    private Long version;
+
 
     public Long getId() {
         return id;
@@ -2,13 +2,16 @@ package spring.demo.models; // ties an ingredient to user meal plan (grocery lis
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
+import spring.demo.config.PersistenceConfig;
 
 @Entity
 @Table(name = "user_ingredients")
 public class UserIngredient {
 
+    // ids come from a pooled sequence so a new plan's rows can be inserted in JDBC batches
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_ingredients_seq")
+    @SequenceGenerator(name = "user_ingredients_seq", sequenceName = "user_ingredients_seq", allocationSize = PersistenceConfig.ID_BLOCK)
     private Long id;
 
     @JsonIgnore
@@ -22,6 +25,15 @@ public class UserIngredient {
 
     private Boolean purchased; // Track if they bought it
 
+    // Summed over every planned recipe that uses this ingredient
+    @Column(name = "required_amount")
+    private Double requiredAmount; // grams or millilitres
+    @Column(name = "required_count")
+    private Double requiredCount; // whole items, e.g. "2 onions"
+    @Column(name = "recipe_count")
+    private Integer recipeCount; // planned recipes using it, the row goes away at 0
+    private Integer packages; // packages to buy to cover the amounts above
+
 
     public UserIngredient() {
     }
@@ -64,4 +76,36 @@ public class UserIngredient {
     public void setPurchased(Boolean purchased) {
         this.purchased = purchased;
     }
+
+    public double getRequiredAmount() {
+        return requiredAmount == null ? 0 : requiredAmount;
+    }
+
+    public void setRequiredAmount(double requiredAmount) {
+        this.requiredAmount = requiredAmount;
+    }
+
+    public double getRequiredCount() {
+        return requiredCount == null ? 0 : requiredCount;
+    }
+
+    public void setRequiredCount(double requiredCount) {
+        this.requiredCount = requiredCount;
+    }
+
+    public int getRecipeCount() {
+        return recipeCount == null ? 0 : recipeCount;
+    }
+
+    public void setRecipeCount(int recipeCount) {
+        this.recipeCount = recipeCount;
+    }
+
+    public int getPackages() {
+        return packages == null ? 1 : packages;
+    }
+
+    public void setPackages(int packages) {
+        this.packages = packages;
+    }
 }
\ No newline at end of file
@@ -2,6 +2,8 @@ package spring.demo.models;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
+import spring.demo.config.PersistenceConfig;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.time.LocalDate;
 
@@ -11,6 +13,7 @@ import java.time.LocalDate;
         name = "user_meal_plans",
         indexes = {
                 @Index(name = "idx_ump_user_id", columnList = "user_id"),
+                @Index(name = "idx_ump_user_id_id", columnList = "user_id, id"),
                 @Index(name = "idx_ump_recipe_id", columnList = "recipe_id"),
                 @Index(name = "idx_ump_planned", columnList = "planned"),
                 @Index(name = "idx_ump_eaten", columnList = "eaten"),
@@ -21,8 +24,10 @@ import java.time.LocalDate;
 )
 public class UserMealPlan {
 
+    // ids come from a pooled sequence so a new plan's rows can be inserted in JDBC batches
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_meal_plans_seq")
+    @SequenceGenerator(name = "user_meal_plans_seq", sequenceName = "user_meal_plans_seq", allocationSize = PersistenceConfig.ID_BLOCK)
     private Long id;
 
     @JsonIgnore
@@ -42,6 +47,11 @@ public class UserMealPlan {
     @Column(name = "eaten_date")
     private LocalDate eatenDate;
 
+    @JsonIgnore
+    @Version
+    @ColumnDefault("0")
+    private Long version;
+
     public UserMealPlan() {
     }
 
@@ -58,6 +68,10 @@ public class UserMealPlan {
         this.eatenDate = eatenDate;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
     // Getters and Setters
     public Long getId() {
         return id;
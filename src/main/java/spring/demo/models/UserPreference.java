@@ -23,6 +23,7 @@ public class UserPreference {
 	private Integer meals;
 	private Boolean vegan;
 	private String allergies;
+	private String pantry; // items the user always has at home, left off grocery lists
     private boolean update;
 	public int getCalories() {
 		return calories;
@@ -55,6 +56,13 @@ public class UserPreference {
 		this.allergies = allergies;
 	}
 
+	public String getPantry() {
+		return pantry;
+	}
+	public void setPantry(String pantry) {
+		this.pantry = pantry;
+	}
+
     public Boolean isUpdate(){
         return update;
     }
@@ -0,0 +1,26 @@
+package spring.demo.models.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import spring.demo.models.DailyIntake;
+import spring.demo.models.IntakeDay;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface DailyIntakeRepository extends JpaRepository<DailyIntake, Long> {
+
+    Optional<DailyIntake> findByUserIdAndDate(Long userId, LocalDate date);
+
+    @Query("SELECT d.calories FROM DailyIntake d WHERE d.userId = :userId AND d.date = :date")
+    Integer findCalories(@Param("userId") Long userId, @Param("date") LocalDate date);
+
+    // Reads one row per day that has meals, through the (user_id, intake_date) unique index
+    @Query("SELECT new spring.demo.models.IntakeDay(d.date, d.calories, d.protein, d.carbohydrate, d.fat, d.cost, d.meals) " +
+            "FROM DailyIntake d WHERE d.userId = :userId AND d.date BETWEEN :from AND :to ORDER BY d.date")
+    List<IntakeDay> findDays(@Param("userId") Long userId, @Param("from") LocalDate from, @Param("to") LocalDate to);
+}
@@ -1,10 +1,31 @@
 package spring.demo.models.repository;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import spring.demo.config.EntityCacheConfig;
+import spring.demo.models.GroceryItem;
 import spring.demo.models.Ingredient;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface IngredientRepository extends JpaRepository<Ingredient, Long> {
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = EntityCacheConfig.INGREDIENT_QUERIES)})
     Optional<Ingredient> findByNameIgnoreCase(String name);
+
+    // names must already be lowercase
+    @Query("SELECT i FROM Ingredient i WHERE LOWER(i.name) IN :names")
+    List<Ingredient> findAllByLowerNameIn(@Param("names") Collection<String> names);
+
+    // The user's grocery rows with the ingredient fields the list shows, in one statement
+    @Query("SELECT new spring.demo.models.GroceryItem(i.id, i.name, i.totalPrice, i.imageUrl, i.productUrl, ui.purchased) " +
+            "FROM UserIngredient ui JOIN ui.ingredient i " +
+            "WHERE ui.user.id = :userId ORDER BY ui.id")
+    List<GroceryItem> findGroceryListByUserId(@Param("userId") Long userId);
 }
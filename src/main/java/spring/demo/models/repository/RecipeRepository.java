@@ -1,14 +1,24 @@
 package spring.demo.models.repository;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
+import spring.demo.config.EntityCacheConfig;
+import spring.demo.models.PlannedRecipeSummary;
 import spring.demo.models.Recipe;
+import spring.demo.models.RecipeSummary;
+import spring.demo.models.RecipeUses;
 
 import java.util.List;
 import java.util.Optional;
 
 public interface RecipeRepository extends JpaRepository<Recipe, Long> {
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = EntityCacheConfig.RECIPE_QUERIES)})
     Optional<Recipe> findByNameIgnoreCase(String name);
 
     List<Recipe> findByCaloriesBetween(int min, int max);
@@ -22,34 +32,51 @@ public interface RecipeRepository extends JpaRepository<Recipe, Long> {
                                       @Param("maxCal") int maxCal,
                                       @Param("target") int target);
 
-    @Query(value = "SELECT * FROM recipes ORDER BY RANDOM() LIMIT :limit", nativeQuery = true)
-    List<Recipe> findRandomRecipes(@Param("limit") int limit);
-
-    @Query(value = "SELECT * From recipes WHERE category = :userCategory", nativeQuery = true)
-    List<Recipe> findByCategory(String userCategory);
+    // JPQL rather than native SQL so the cached result is invalidated when recipes change
+    @Query("SELECT r FROM Recipe r WHERE r.category = :userCategory")
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = EntityCacheConfig.RECIPE_QUERIES)})
+    List<Recipe> findByCategory(@Param("userCategory") String userCategory);
 
     @Query("SELECT ump.recipe FROM UserMealPlan ump WHERE ump.user.id = :userId")
     List<Recipe> findRecipesByUserId(@Param("userId") Long userId);
 
+    // Card fields only, instructions and ingredients stay in the database
+    @Query("SELECT new spring.demo.models.RecipeSummary(r.id, r.name, r.category, r.thumbnail, " +
+            "r.calories, r.protein, r.carbohydrate, r.fat, r.mealCost) " +
+            "FROM UserMealPlan ump JOIN ump.recipe r WHERE ump.user.id = :userId")
+    List<RecipeSummary> findRecipeSummariesByUserId(@Param("userId") Long userId);
+
+    // One page of the user's plan rows after the cursor in plan id order, filters left null don't apply. Archived history
+    // keeps the id it had in the plan, so both tables page together; archived rows are eaten and no longer planned
+    @Query("SELECT new spring.demo.models.PlannedRecipeSummary(p.planId, r.id, r.name, r.category, r.thumbnail, " +
+            "r.calories, r.protein, r.carbohydrate, r.fat, r.mealCost) " +
+            "FROM (SELECT ump.id AS planId, ump.recipe.id AS recipeId, ump.planned AS planned FROM UserMealPlan ump " +
+            "WHERE ump.user.id = :userId AND ump.id > :after " +
+            "UNION ALL " +
+            "SELECT a.id AS planId, a.recipeId AS recipeId, false AS planned FROM ArchivedMealPlan a " +
+            "WHERE a.userId = :userId AND a.id > :after) p " +
+            "JOIN Recipe r ON r.id = p.recipeId " +
+            "WHERE (:category IS NULL OR LOWER(r.category) = LOWER(:category)) " +
+            "AND (:planned IS NULL OR p.planned = :planned) " +
+            "AND (:maxCalories IS NULL OR r.calories <= :maxCalories) " +
+            "ORDER BY p.planId")
+    List<PlannedRecipeSummary> findRecipeSummaryPage(@Param("userId") Long userId, @Param("after") long after,
+                                                     @Param("category") String category, @Param("planned") Boolean planned,
+                                                     @Param("maxCalories") Integer maxCalories, Limit limit);
+
+    @Query("SELECT new spring.demo.models.RecipeUses(ump.recipe.id, COUNT(ump)) FROM UserMealPlan ump GROUP BY ump.recipe.id")
+    List<RecipeUses> countPlanUses();
+
+    @Query("SELECT new spring.demo.models.RecipeUses(a.recipeId, COUNT(a)) FROM ArchivedMealPlan a GROUP BY a.recipeId")
+    List<RecipeUses> countArchivedUses();
+
     @Query("SELECT ump.recipe FROM UserMealPlan ump WHERE ump.user.id = :userId AND ump.planned = true")
     List<Recipe> findMarkedRecipesByUserId(@Param("userId") Long userId);
 
-    @Query("SELECT SUM(r.calories) FROM UserMealPlan ump " +
-            "JOIN ump.recipe r " +
-            "WHERE ump.user.id = :userId AND ump.eaten = true")
-    Integer findEatenRecipesByUserID(@Param("userId") Long userId);
-
     @Query("SELECT r FROM Recipe r WHERE r.calories IS NULL OR r.calories = 0")
     List<Recipe> findRecipesWithNullOrZeroCalories();
 
     @Query("SELECT r FROM Recipe r WHERE r.mealCost IS NULL OR r.mealCost = 0.0 OR r.mealCost > 5.00")
     List<Recipe> findRecipesWithNullOrZeroMealCost();
-
-
-    @Query(value = "SELECT SUM(r.calories) FROM user_meal_plans ump " +
-            "JOIN recipes r ON r.id = ump.recipe_id " +
-            "WHERE ump.user_id = :userId " +
-            "AND ump.eaten = true " +
-            "AND ump.eaten_date = CURRENT_DATE", nativeQuery = true)
-    Integer getTodayEatenCalories(@Param("userId") Long userId);
 }
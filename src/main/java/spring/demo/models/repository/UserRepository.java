@@ -1,5 +1,6 @@
 package spring.demo.models.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -15,6 +16,14 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
     boolean existsByEmail(String email);
 
+    @Query("SELECT u.id FROM User u WHERE u.email = :email")
+    Optional<Long> findIdByEmail(@Param("email") String email);
+
+    // The user with their meal plans and its recipes in one statement, for reads that walk the whole plan
+    @EntityGraph(attributePaths = {"mealPlans", "mealPlans.recipe"})
+    @Query("SELECT u FROM User u WHERE u.email = :email")
+    Optional<User> findWithMealPlansByEmail(@Param("email") String email);
+
 
 }
 
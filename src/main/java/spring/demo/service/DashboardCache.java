@@ -0,0 +1,183 @@
+/*
+Keeps each user's assembled dashboard so /api/load only hits the database after something changed it.
+Entries are dropped when a PlanChangedEvent commits, at midnight since today's calories move on, and after a TTL as a backstop
+for changes made on another node. The random picks come from a small pool shared by everyone and refreshed on a timer instead,
+each dashboard takes the first ones that aren't already among the user's meals for today.
+ */
+
+package spring.demo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import spring.demo.models.DashboardData;
+import spring.demo.models.PlanChangedEvent;
+import spring.demo.models.RecipeSummary;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+@Service
+public class DashboardCache {
+
+    // what GET /api/metrics/dashboard-cache reports, ages are how old the served data was
+    public record Stats(long hits, long misses, long invalidations, double hitRatio, int entries,
+                        double averageHitAgeMs, double maxHitAgeMs, double randomMealsAgeMs) {
+    }
+
+    private record Entry(DashboardData data, long builtAt, LocalDate day) {
+    }
+
+    // generation changes on every invalidation, so a dashboard built before it can't be stored after it
+    private record Slot(long generation, Entry entry, long touchedAt) {
+    }
+
+    private record RandomMeals(List<RecipeSummary> recipes, long refreshedAt) {
+    }
+
+    private static final int RANDOM_PICKS = 2;
+
+    private final MealPlanService mealPlanService;
+    private final long ttlMs;
+    private final int maxEntries;
+    private final int randomPoolSize;
+    private static final Logger log = LoggerFactory.getLogger(DashboardCache.class);
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final AtomicLong generations = new AtomicLong();
+    private volatile RandomMeals randomMeals;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder hitAgeMs = new LongAdder();
+    private final AtomicLong maxHitAgeMs = new AtomicLong();
+
+    public DashboardCache(MealPlanService mealPlanService,
+                          @Value("${dashboard.cache.ttl-minutes:30}") long ttlMinutes,
+                          @Value("${dashboard.cache.max-entries:10000}") int maxEntries,
+                          @Value("${dashboard.random-pool:8}") int randomPoolSize) {
+        this.mealPlanService = mealPlanService;
+        this.ttlMs = TimeUnit.MINUTES.toMillis(ttlMinutes);
+        this.maxEntries = maxEntries;
+        this.randomPoolSize = Math.max(RANDOM_PICKS, randomPoolSize);
+    }
+
+    // The user's dashboard with the current random picks, if one was built today, within the TTL and since their last change
+    public Optional<DashboardData> get(String email) {
+        Slot slot = slots.get(email);
+        long now = System.currentTimeMillis();
+        if (slot == null || slot.entry() == null || !isFresh(slot.entry(), now)) {
+            misses.increment();
+            return Optional.empty();
+        }
+
+        long age = now - slot.entry().builtAt();
+        hits.increment();
+        hitAgeMs.add(age);
+        maxHitAgeMs.accumulateAndGet(age, Math::max);
+        DashboardData data = slot.entry().data();
+        return Optional.of(data.withRandomMeals(randomMeals(data.getSelectedMeals())));
+    }
+
+    // Taken before reading what goes into a dashboard, put only keeps it if no change landed in between
+    public long stamp(String email) {
+        return slots.compute(email, (key, slot) -> slot != null ? slot
+                : new Slot(generations.incrementAndGet(), null, System.currentTimeMillis())).generation();
+    }
+
+    public void put(String email, long stamp, DashboardData data) {
+        long now = System.currentTimeMillis();
+        slots.computeIfPresent(email, (key, slot) -> slot.generation() == stamp
+                ? new Slot(stamp, new Entry(data, now, LocalDate.now()), now)
+                : slot);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPlanChanged(PlanChangedEvent event) {
+        invalidate(event.email());
+    }
+
+    public void invalidate(String email) {
+        invalidations.increment();
+        slots.put(email, new Slot(generations.incrementAndGet(), null, System.currentTimeMillis()));
+    }
+
+    // Picks from the shared pool that aren't one of the user's selected meals, the pool changes on the next refresh
+    public List<RecipeSummary> randomMeals(List<RecipeSummary> selectedMeals) {
+        RandomMeals current = randomMeals;
+        if (current == null || current.recipes().isEmpty()) {
+            refreshRandomMeals();
+            current = randomMeals;
+        }
+        Set<Long> selected = selectedMeals.stream().map(RecipeSummary::id).collect(Collectors.toSet());
+        List<RecipeSummary> picks = current.recipes().stream()
+                .filter(recipe -> !selected.contains(recipe.id()))
+                .limit(RANDOM_PICKS)
+                .toList();
+        // a user whose meals cover most of the pool still gets a full preview
+        return picks.size() < RANDOM_PICKS ? current.recipes().stream().limit(RANDOM_PICKS).toList() : picks;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${dashboard.random-refresh-ms:60000}",
+            initialDelayString = "${dashboard.random-refresh-ms:60000}")
+    public void refreshRandomMeals() {
+        try {
+            randomMeals = new RandomMeals(RecipeSummary.of(mealPlanService.random(randomPoolSize, Set.of())), System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            log.warn("Could not refresh the dashboard's random meals", e);
+            if (randomMeals == null) {
+                randomMeals = new RandomMeals(List.of(), System.currentTimeMillis());
+            }
+        }
+    }
+
+    // Drops expired entries, then the least recently written ones while over the size limit
+    @Scheduled(fixedDelayString = "${dashboard.cache.sweep-ms:60000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        slots.values().removeIf(slot -> now - slot.touchedAt() > ttlMs);
+
+        int excess = slots.size() - maxEntries;
+        if (excess > 0) {
+            slots.entrySet().stream()
+                    .sorted(Comparator.comparingLong(e -> e.getValue().touchedAt()))
+                    .limit(excess)
+                    .map(Map.Entry::getKey)
+                    .toList()
+                    .forEach(slots::remove);
+        }
+    }
+
+    public Stats stats() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        RandomMeals random = randomMeals;
+        int entries = (int) slots.values().stream().filter(slot -> slot.entry() != null).count();
+        return new Stats(hitCount, misses.sum(), invalidations.sum(),
+                lookups == 0 ? 0 : (double) hitCount / lookups,
+                entries,
+                hitCount == 0 ? 0 : (double) hitAgeMs.sum() / hitCount,
+                maxHitAgeMs.get(),
+                random == null ? 0 : System.currentTimeMillis() - random.refreshedAt());
+    }
+
+    private boolean isFresh(Entry entry, long now) {
+        return now - entry.builtAt() <= ttlMs && entry.day().equals(LocalDate.now());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+Evicts second-level cache entries for writes Hibernate doesn't see, and reports how well each cache region is doing.
+Evictions run straight away and again once the writing transaction commits, so a read in between can't put the old row back.
+ */
+
+package spring.demo.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import spring.demo.config.EntityCacheConfig;
+import spring.demo.models.Ingredient;
+import spring.demo.models.Recipe;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@Service
+public class EntityCacheService {
+
+    // what GET /api/metrics/entity-cache reports for each region
+    public record RegionStats(String region, long hits, long misses, long puts, double hitRatio, long entries) {
+    }
+
+    private final SessionFactory sessionFactory;
+
+    public EntityCacheService(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    // After ingredients were written outside Hibernate, e.g. the batched price upsert
+    public void evictIngredients(Collection<Long> ids) {
+        List<Long> evicted = List.copyOf(ids);
+        onceAndAfterCommit(() -> {
+            evicted.forEach(id -> sessionFactory.getCache().evictEntityData(Ingredient.class, id));
+            sessionFactory.getCache().evictQueryRegion(EntityCacheConfig.INGREDIENT_QUERIES);
+        });
+    }
+
+    // After an admin bulk update of the recipe catalog
+    public void evictRecipes() {
+        onceAndAfterCommit(() -> {
+            sessionFactory.getCache().evictEntityData(Recipe.class);
+            sessionFactory.getCache().evictQueryRegion(EntityCacheConfig.RECIPE_QUERIES);
+        });
+    }
+
+    public List<RegionStats> stats() {
+        Statistics statistics = sessionFactory.getStatistics();
+        List<RegionStats> regions = new ArrayList<>();
+        for (String region : List.of(EntityCacheConfig.RECIPES, EntityCacheConfig.INGREDIENTS)) {
+            regions.add(of(region, statistics.getDomainDataRegionStatistics(region)));
+        }
+        for (String region : List.of(EntityCacheConfig.RECIPE_QUERIES, EntityCacheConfig.INGREDIENT_QUERIES)) {
+            regions.add(of(region, statistics.getQueryRegionStatistics(region)));
+        }
+        return regions;
+    }
+
+    private static RegionStats of(String region, CacheRegionStatistics statistics) {
+        if (statistics == null) {
+            return new RegionStats(region, 0, 0, 0, 0, 0);
+        }
+        long hits = statistics.getHitCount();
+        long lookups = hits + statistics.getMissCount();
+        return new RegionStats(region, hits, statistics.getMissCount(), statistics.getPutCount(),
+                lookups == 0 ? 0 : (double) hits / lookups,
+                Math.max(statistics.getElementCountInMemory(), 0));
+    }
+
+    private static void onceAndAfterCommit(Runnable eviction) {
+        eviction.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    eviction.run();
+                }
+            });
+        }
+    }
+}
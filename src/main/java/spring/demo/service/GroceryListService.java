@@ -0,0 +1,145 @@
+/*
+This service builds the user's grocery list as one row per ingredient with the amount the whole plan needs,
+converted into packages to buy. Rows are patched per recipe, so swapping a meal only touches its own ingredients.
+ */
+
+package spring.demo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import spring.demo.models.*;
+import spring.demo.models.repository.IngredientRepository;
+import spring.demo.service.index.PantryStaples;
+
+import java.util.*;
+import java.util.function.Function;
+
+@Service
+public class GroceryListService {
+
+    private final IngredientRepository ingredientRepository;
+    private final PantryStaples pantryStaples;
+    private static final Logger log = LoggerFactory.getLogger(GroceryListService.class);
+
+    public GroceryListService(IngredientRepository ingredientRepository, PantryStaples pantryStaples) {
+        this.ingredientRepository = ingredientRepository;
+        this.pantryStaples = pantryStaples;
+    }
+
+    // Adds every recipe of a new plan to the list, pricing ingredients from the ones fetched while filtering
+    public void addRecipes(User user, Collection<Recipe> recipes, Function<String, Ingredient> priced) {
+        Map<String, UserIngredient> rows = rowsByName(user);
+        PantryStaples.Classifier staples = pantryStaples.forUser(user.getPreferences());
+        Set<UserIngredient> touched = new HashSet<>();
+
+        for (Recipe recipe : recipes) {
+            apply(user, recipe, 1, rows, staples, priced, touched);
+        }
+        repack(touched);
+    }
+
+    // Replaces one planned recipe with another, adjusting only the rows the two recipes use
+    public void swapRecipe(User user, Recipe removed, Recipe added) {
+        Map<String, UserIngredient> rows = rowsByName(user);
+        PantryStaples.Classifier staples = pantryStaples.forUser(user.getPreferences());
+        Set<UserIngredient> touched = new HashSet<>();
+
+        if (removed != null) {
+            apply(user, removed, -1, rows, staples, name -> null, touched);
+        }
+        if (added != null) {
+            apply(user, added, 1, rows, staples,
+                    name -> ingredientRepository.findByNameIgnoreCase(name).orElse(null), touched);
+        }
+        repack(touched);
+    }
+
+    private void apply(User user, Recipe recipe, int sign, Map<String, UserIngredient> rows,
+                       PantryStaples.Classifier staples, Function<String, Ingredient> priced,
+                       Set<UserIngredient> touched) {
+        Set<String> seen = new HashSet<>();
+        for (Map.Entry<String, IngredientMeasure> entry : recipe.getMeasures().entrySet()) {
+            String name = entry.getKey().toLowerCase().trim();
+            if (!seen.add(name) || staples.isStaple(name)) {
+                continue;
+            }
+
+            UserIngredient row = rows.get(name);
+            if (row == null) {
+                if (sign < 0) continue;
+                Ingredient ingredient = priced.apply(name);
+                if (ingredient == null) continue;
+
+                row = new UserIngredient(user, ingredient);
+                row.setRequiredAmount(0);
+                row.setRequiredCount(0);
+                row.setRecipeCount(0);
+                user.getGroceryList().add(row);
+                rows.put(name, row);
+            }
+
+            Quantity quantity = entry.getValue().getQuantity();
+            if (quantity.isMeasured()) {
+                row.setRequiredAmount(Math.max(0, row.getRequiredAmount() + sign * quantity.amount()));
+            } else if (quantity.dimension() == UnitDimension.COUNT) {
+                row.setRequiredCount(Math.max(0, row.getRequiredCount() + sign * quantity.amount()));
+            }
+            row.setRecipeCount(row.getRecipeCount() + sign);
+
+            if (row.getRecipeCount() <= 0) {
+                user.getGroceryList().remove(row);
+                rows.remove(name);
+                touched.remove(row);
+            } else {
+                touched.add(row);
+            }
+        }
+    }
+
+    // Recomputes how many packages cover each changed row
+    private void repack(Collection<UserIngredient> rows) {
+        for (UserIngredient row : rows) {
+            row.setPackages(packagesFor(row));
+        }
+    }
+
+    static int packagesFor(UserIngredient row) {
+        Quantity pack = row.getIngredient().getPackageQuantity();
+        double size = pack.amount();
+        int packages = 0;
+
+        if (size > 0 && pack.isMeasured()) {
+            packages = (int) Math.ceil(row.getRequiredAmount() / size);
+        } else if (size > 0 && pack.dimension() == UnitDimension.COUNT) {
+            packages = (int) Math.ceil(row.getRequiredCount() / size);
+        }
+        // amounts we can't convert to the package unit still need something bought
+        return Math.max(packages, row.getRecipeCount() > 0 ? 1 : 0);
+    }
+
+    // Builds the priced, aggregated view of the user's grocery list
+    public ShoppingList shoppingList(User user) {
+        List<ShoppingList.Item> items = new ArrayList<>();
+        for (UserIngredient row : user.getGroceryList()) {
+            Ingredient ingredient = row.getIngredient();
+            double price = ingredient.getTotalPrice();
+            int packages = row.getPackages();
+            items.add(new ShoppingList.Item(ingredient.getName(), row.getRequiredAmount(), row.getRequiredCount(),
+                    ingredient.getServingsPerContainer(), packages, price, packages * price,
+                    ingredient.getImageUrl(), ingredient.getProductUrl()));
+        }
+        log.info("Shopping list for {}: {} items", user.getEmail(), items.size());
+        return new ShoppingList(items);
+    }
+
+    private Map<String, UserIngredient> rowsByName(User user) {
+        Map<String, UserIngredient> rows = new HashMap<>();
+        for (UserIngredient row : user.getGroceryList()) {
+            if (row.getIngredient() != null && row.getIngredient().getName() != null) {
+                rows.putIfAbsent(row.getIngredient().getName().toLowerCase().trim(), row);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+Keeps the daily_intake rollup: when a meal is marked eaten its nutrition and cost are added to the user's row for that day, in the
+same transaction as the meal plan change. Today's progress and the weekly and monthly stats read these rows instead of joining the
+whole meal plan history to the recipes.
+ */
+
+package spring.demo.service;
+
+import org.springframework.stereotype.Service;
+import spring.demo.models.DailyIntake;
+import spring.demo.models.IntakeDay;
+import spring.demo.models.IntakeStats;
+import spring.demo.models.Recipe;
+import spring.demo.models.repository.DailyIntakeRepository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Service
+public class IntakeService {
+
+    // stats periods and the days they cover, ending today
+    private static final Map<String, Integer> PERIODS = Map.of("week", 7, "month", 30);
+
+    private final DailyIntakeRepository intakeRepository;
+
+    public IntakeService(DailyIntakeRepository intakeRepository) {
+        this.intakeRepository = intakeRepository;
+    }
+
+    // Adds an eaten meal to the user's day, must run inside the transaction that marks the meal eaten
+    public void recordMeal(Long userId, Recipe recipe, LocalDate date) {
+        DailyIntake intake = intakeRepository.findByUserIdAndDate(userId, date)
+                .orElseGet(() -> new DailyIntake(userId, date));
+        intake.add(recipe);
+        intakeRepository.save(intake);
+    }
+
+    public int caloriesOn(Long userId, LocalDate date) {
+        Integer calories = intakeRepository.findCalories(userId, date);
+        return calories == null ? 0 : calories;
+    }
+
+    public boolean isPeriod(String period) {
+        return PERIODS.containsKey(period);
+    }
+
+    // Every day of the period, zeros where nothing was eaten, with the totals and daily averages
+    public IntakeStats stats(Long userId, String period, int targetCalories) {
+        int length = PERIODS.get(period);
+        LocalDate to = LocalDate.now();
+        LocalDate from = to.minusDays(length - 1);
+
+        Map<LocalDate, IntakeDay> rows = intakeRepository.findDays(userId, from, to).stream()
+                .collect(Collectors.toMap(IntakeDay::date, Function.identity()));
+
+        List<IntakeDay> days = new ArrayList<>(length);
+        int calories = 0, protein = 0, carbohydrate = 0, fat = 0, meals = 0;
+        double cost = 0;
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            IntakeDay day = rows.getOrDefault(date, IntakeDay.empty(date));
+            days.add(day);
+            calories += day.calories();
+            protein += day.protein();
+            carbohydrate += day.carbohydrate();
+            fat += day.fat();
+            cost += day.cost();
+            meals += day.meals();
+        }
+
+        return new IntakeStats(period, from, to, days, calories, protein, carbohydrate, fat, cost, meals,
+                (double) calories / length, cost / length, targetCalories);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+Keeps user_meal_plans down to the live plan: rows that were eaten and then unplanned are history, nothing reads them back
+and they used to pile up in User.mealPlans for as long as the account existed. They are moved to user_meal_plan_archive
+when a day's meals are all eaten, and a periodic sweep moves any left behind by older versions in small id batches.
+The per-day totals stay in daily_intake, the archive only keeps which recipe was eaten when.
+ */
+
+package spring.demo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import spring.demo.models.User;
+import spring.demo.models.UserMealPlan;
+
+import javax.sql.DataSource;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+@Service
+public class MealPlanArchiver {
+
+    // what GET /api/metrics/plan-archive reports
+    public record Stats(long archived, long swept, long sweeps) {
+    }
+
+    private static final String HISTORY = "eaten = true AND planned = false";
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate named;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private static final Logger log = LoggerFactory.getLogger(MealPlanArchiver.class);
+
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder swept = new LongAdder();
+    private final LongAdder sweeps = new LongAdder();
+
+    public MealPlanArchiver(DataSource dataSource, PlatformTransactionManager transactionManager,
+                            @Value("${plans.archive.batch-size:500}") int batchSize) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.named = new NamedParameterJdbcTemplate(jdbc);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+    public static boolean isHistory(UserMealPlan plan) {
+        return Boolean.TRUE.equals(plan.isEaten()) && !Boolean.TRUE.equals(plan.isPlanned());
+    }
+
+    // Copies the user's history rows into the archive on the caller's transaction and returns the rows to keep.
+    // The caller puts those back on the user, orphan removal then deletes the archived ones at flush
+    public List<UserMealPlan> archive(User user, List<UserMealPlan> plans) {
+        LocalDateTime now = LocalDateTime.now();
+        List<UserMealPlan> kept = new ArrayList<>(plans.size());
+        List<Object[]> rows = new ArrayList<>();
+        for (UserMealPlan plan : plans) {
+            if (plan == null || plan.getId() == null || plan.getRecipe() == null || !isHistory(plan)) {
+                kept.add(plan);
+                continue;
+            }
+            rows.add(new Object[]{plan.getId(), user.getId(), plan.getRecipe().getId(),
+                    plan.getEatenDate() == null ? null : Date.valueOf(plan.getEatenDate()), Timestamp.valueOf(now),
+                    plan.getId()});
+        }
+        if (rows.isEmpty()) {
+            return kept;
+        }
+
+        jdbc.batchUpdate("INSERT INTO user_meal_plan_archive (id, user_id, recipe_id, eaten_date, archived_at) " +
+                "SELECT ?, ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM user_meal_plan_archive WHERE id = ?)", rows);
+        archived.add(rows.size());
+        log.info("Archived {} eaten meals of user {}", rows.size(), user.getId());
+        return kept;
+    }
+
+    // Moves history rows the inline path never saw, one batch per transaction so no user's rows stay locked for long
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${plans.archive.sweep-ms:3600000}",
+            initialDelayString = "${plans.archive.sweep-ms:3600000}")
+    public void sweep() {
+        int moved = 0;
+        while (true) {
+            List<Long> ids = jdbc.queryForList("SELECT id FROM user_meal_plans WHERE " + HISTORY + " ORDER BY id LIMIT ?",
+                    Long.class, batchSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            Integer batch = transactionTemplate.execute(status -> move(ids));
+            if (batch == null || batch == 0) {
+                break;
+            }
+            moved += batch;
+        }
+        sweeps.increment();
+        if (moved > 0) {
+            swept.add(moved);
+            log.info("Swept {} eaten meals into user_meal_plan_archive", moved);
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(archived.sum(), swept.sum(), sweeps.sum());
+    }
+
+    private int move(List<Long> ids) {
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids)
+                .addValue("now", Timestamp.valueOf(LocalDateTime.now()));
+        named.update("INSERT INTO user_meal_plan_archive (id, user_id, recipe_id, eaten_date, archived_at) " +
+                "SELECT p.id, p.user_id, p.recipe_id, p.eaten_date, :now FROM user_meal_plans p " +
+                "WHERE p.id IN (:ids) AND p.eaten = true AND p.planned = false " +
+                "AND NOT EXISTS (SELECT 1 FROM user_meal_plan_archive a WHERE a.id = p.id)", params);
+        return named.update("DELETE FROM user_meal_plans WHERE id IN (:ids) AND " + HISTORY, params);
+    }
+}
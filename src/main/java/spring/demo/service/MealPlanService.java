@@ -9,6 +9,7 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
@@ -20,9 +21,19 @@ import spring.demo.models.*;
 import spring.demo.models.repository.IngredientRepository;
 import spring.demo.models.repository.RecipeRepository;
 import spring.demo.models.repository.UserRepository;
+import spring.demo.service.index.AllergenIndex;
+import spring.demo.service.index.CalorieIndex;
+import spring.demo.service.index.CatalogCalorieIndex;
+import spring.demo.service.index.RecipeSampler;
 
 import java.lang.reflect.Array;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.function.LongPredicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -33,6 +44,18 @@ public class MealPlanService {
     @Value("${prod}")
     private String enableIngredientFilter;
 
+    // upper bound on ingredients a single plan keeps in memory while pricing
+    @Value("${plan.context.max-priced:2000}")
+    private int maxPricedPerPlan;
+
+    // priced ingredients a plan buffers before writing them in one batch
+    @Value("${pricing.write-batch:500}")
+    private int writeBatch;
+
+    // price API calls one plan may have in flight at once
+    @Value("${pricing.parallelism:8}")
+    private int pricingParallelism;
+
     private final UserRepository userRepository;
     private final JwtService jwtService;
     private final AuthenticationManager authenticationManager;
@@ -41,13 +64,26 @@ public class MealPlanService {
     private PriceService priceService;
     private IngredientRepository ingredientRepository;
     private RecipeRepository recipeRepository;
+    private AllergenIndex allergenIndex;
+    private CatalogCalorieIndex catalogCalories;
+    private RecipeSampler recipeSampler;
+    private GroceryListService groceryListService;
+    private IntakeService intakeService;
+    private PricedIngredientWriter pricedIngredientWriter;
+    private MealPlanArchiver mealPlanArchiver;
+    private ExecutorService pricingExecutor;
     private static final Logger log = LoggerFactory.getLogger(MealPlanService.class);
+    private static final Pattern LEADING_NUMBER = Pattern.compile("(\\d+\\.?\\d*)");
 
 
     @Autowired
     public MealPlanService(UserRepository userRepository, JwtService jwtService, AuthenticationManager authenticationManager,
                           MealService mealService, NutritionService nutritionService,
-                          PriceService priceService, IngredientRepository ingredientRepository, RecipeRepository recipeRepository) {
+                          PriceService priceService, IngredientRepository ingredientRepository, RecipeRepository recipeRepository,
+                          AllergenIndex allergenIndex, CatalogCalorieIndex catalogCalories, RecipeSampler recipeSampler,
+                          GroceryListService groceryListService, IntakeService intakeService,
+                          PricedIngredientWriter pricedIngredientWriter, MealPlanArchiver mealPlanArchiver,
+                          @Qualifier("pricingExecutor") ExecutorService pricingExecutor) {
         super();
         this.userRepository = userRepository;
         this.jwtService = jwtService;
@@ -57,14 +93,58 @@ public class MealPlanService {
         this.priceService = priceService;
         this.ingredientRepository = ingredientRepository;
         this.recipeRepository = recipeRepository;
+        this.allergenIndex = allergenIndex;
+        this.catalogCalories = catalogCalories;
+        this.recipeSampler = recipeSampler;
+        this.groceryListService = groceryListService;
+        this.intakeService = intakeService;
+        this.pricedIngredientWriter = pricedIngredientWriter;
+        this.mealPlanArchiver = mealPlanArchiver;
+        this.pricingExecutor = pricingExecutor;
+    }
+
+    // Fresh working state for one plan generation
+    public PlanContext newContext() {
+        return new PlanContext(maxPricedPerPlan);
+    }
+
+    // Loads, filters and prices the candidate recipes for the user's preferences. Meant to run with no transaction open, so
+    // the remote price calls don't hold a pooled connection; the ingredients they price are saved in short transactions of their own
+    public ArrayList<Recipe> preparePlan(@NotNull User user, PlanContext context) throws Exception {
+        ArrayList<Recipe> recipieList = loadandFilterRecipies(user, context);
+        log.info("Priced {} ingredients", context.pricedCount());
+        return recipieList;
+    }
+
+    // Replaces the user's meal plan and grocery list with a pick from the prepared candidates, in the caller's transaction.
+    // The candidates and priced ingredients are only read, so a transaction retried after a conflict can run it again
+    public ArrayList<Recipe> savePlan(@NotNull User user, List<Recipe> candidates, PlanContext context) {
+        writeMealCosts(context);
+        ArrayList<Recipe> recipieList = new ArrayList<>(candidates);
+
+        user.getGroceryList().clear();
+        user.getMealPlans().clear();
+
+        int MAX_MEAL_PLAN_SIZE = (user.getPreferences().getMeals() * 7);
+
+        if (recipieList.size() > MAX_MEAL_PLAN_SIZE) {
+            recipieList = filterRecipes(recipieList, MAX_MEAL_PLAN_SIZE,
+                    user.getPreferences().getCalories(), user.getPreferences().getMeals());
+        }
+        context.setRecipes(recipieList);
+        context.report(PlanContext.Stage.SELECTED, recipieList.size(), recipieList.size());
+
+        findAndSaveMealPlan(user, context);
+        userRepository.save(user);
+        return recipieList;
     }
 
     //Main algorithm: This loads and filtered recipes by several categories, filters them by cost, price and ingredeints, returning a final list
-    public ArrayList<Recipe> loadandFilterRecipies(@NotNull User user, ArrayList<Recipe> recipieList, ArrayList<Ingredient> priceList) throws Exception {
+    public ArrayList<Recipe> loadandFilterRecipies(@NotNull User user, PlanContext context) throws Exception {
 
         //Load recipes by category from the DB
         List<String> categories = Arrays.asList("Chicken", "Beef", "Pork", "Vegetarian", "Vegan", "Breakfast");
-        recipieList = (ArrayList<Recipe>) categories.stream()
+        ArrayList<Recipe> recipieList = (ArrayList<Recipe>) categories.stream()
                 .flatMap(category -> {
                     try {
                         return recipeRepository.findByCategory(category).stream();
@@ -74,6 +154,8 @@ public class MealPlanService {
                 })
                 .distinct() // Remove duplicates based on equals/hashCode
                 .collect(Collectors.toList());
+        int total = recipieList.size();
+        context.report(PlanContext.Stage.LOADED, total, total);
 
 
         if (recipieList.isEmpty()) {
@@ -81,12 +163,20 @@ public class MealPlanService {
             return recipieList;
         }
 
-        if(Objects.equals(enableIngredientFilter, "true"))
+        // Drop anything the user can't eat before any ingredient gets priced
+        recipieList = filterByDiet(recipieList, user);
+        context.report(PlanContext.Stage.DIET_FILTERED, recipieList.size(), total);
+
+        if(Objects.equals(enableIngredientFilter, "true")) {
             recipieList = filterByCommonIngredientsOptimized(recipieList, 4);
+            context.report(PlanContext.Stage.INGREDIENT_FILTERED, recipieList.size(), total);
+        }
 
 
         recipieList = filterByCalories(recipieList, user);
-        recipieList = filterByPrice(recipieList, user, priceList);
+        context.report(PlanContext.Stage.CALORIE_FILTERED, recipieList.size(), total);
+        recipieList = filterByPrice(recipieList, user, context);
+        context.report(PlanContext.Stage.PRICE_FILTERED, recipieList.size(), total);
         log.info("After filterByPrice: {} recipes", recipieList.size());
 
         if (recipieList.isEmpty()) {
@@ -94,30 +184,128 @@ public class MealPlanService {
         }
 
         log.info("=== loadandFilterRecipies END: returning {} recipes ===", recipieList.size());
+        context.setRecipes(recipieList);
         return recipieList;
     }
 
-    private ArrayList<Recipe> filterByPrice(ArrayList<Recipe> recipieList, User user, ArrayList<Ingredient> priceList) throws Exception {
+    //Removes recipes excluded by the user's vegan flag or allergies, using the allergen bitmap index
+    private ArrayList<Recipe> filterByDiet(ArrayList<Recipe> recipieList, User user) {
+        allergenIndex.indexMissing(recipieList);
+        BitSet exclusions = allergenIndex.exclusions(user.getPreferences());
+        if (exclusions.isEmpty()) {
+            return recipieList;
+        }
+
+        ArrayList<Recipe> filtered = new ArrayList<>();
+        for (Recipe recipe : recipieList) {
+            if (allergenIndex.permits(exclusions, recipe)) {
+                filtered.add(recipe);
+            }
+        }
+        log.info("After filterByDiet: {} of {} recipes", filtered.size(), recipieList.size());
+        return filtered;
+    }
+
+    private ArrayList<Recipe> filterByPrice(ArrayList<Recipe> recipieList, User user, PlanContext context) throws Exception {
         ArrayList<Recipe> filtered = new ArrayList<>();
         // Removes a recipe if the price, based on serving size costs too much
         double costMax = user.getPreferences().getBudget() / (user.getPreferences().getMeals() * 7) + 1.2;
 
+        // name as the recipe writes it, keyed by the lowercase name every lookup uses
+        Map<String, String> toPrice = new LinkedHashMap<>();
+        for (Recipe recipe : recipieList) {
+            for (String name : recipe.getMeasures().keySet()) {
+                toPrice.putIfAbsent(name.trim().toLowerCase(), name);
+            }
+        }
+        priceAll(toPrice, context);
+
         for (Recipe recipe : recipieList) {
-            if (getMealCost(recipe, priceList) < costMax) {
+            if (getMealCost(recipe, context) < costMax) {
                 filtered.add(recipe);
             }
         }
+        // anything costing had to look up itself
+        writePriced(context);
         return filtered;
     }
 
+    // Prices every ingredient the plan needs before recipes are costed. Cached rows come from one query, and only the
+    // remote price lookups fan out on the pricing executor; saving results stays on this thread
+    private void priceAll(Map<String, String> names, PlanContext context) throws InterruptedException {
+        int total = names.size();
+        Map<String, String> pending = new LinkedHashMap<>();
+        names.forEach((query, ingName) -> {
+            if (!context.isResolved(query)) pending.put(query, ingName);
+        });
+        int done = total - pending.size();
+        context.report(PlanContext.Stage.PRICING, done, total);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        Map<String, Ingredient> stored = new HashMap<>();
+        for (Ingredient ingredient : ingredientRepository.findAllByLowerNameIn(pending.keySet())) {
+            stored.putIfAbsent(ingredient.getName().trim().toLowerCase(), ingredient);
+        }
+
+        List<String> remote = new ArrayList<>();
+        for (String query : pending.keySet()) {
+            Ingredient dbIng = stored.get(query);
+            if (dbIng != null && dbIng.isCacheValid()) {
+                context.addPriced(dbIng);
+                context.report(PlanContext.Stage.PRICING, ++done, total);
+            } else {
+                remote.add(query);
+            }
+        }
+
+        // at most pricingParallelism calls in flight for this plan, the next one starts as each returns
+        CompletionService<Map.Entry<String, Optional<Ingredient>>> lookups = new ExecutorCompletionService<>(pricingExecutor);
+        Iterator<String> next = remote.iterator();
+        int inFlight = 0;
+        while (inFlight > 0 || next.hasNext()) {
+            while (inFlight < pricingParallelism && next.hasNext()) {
+                String query = next.next();
+                String ingName = pending.get(query);
+                lookups.submit(() -> Map.entry(query, Optional.ofNullable(requestPrice(ingName))));
+                inFlight++;
+            }
+
+            Map.Entry<String, Optional<Ingredient>> result;
+            try {
+                result = lookups.take().get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Price lookup failed", e.getCause());
+            }
+            inFlight--;
+
+            String query = result.getKey();
+            Optional<Ingredient> priced = result.getValue()
+                    .flatMap(fresh -> storePrice(stored.get(query), fresh, pending.get(query), query, context));
+            if (priced.isEmpty()) {
+                context.markUnpriced(query);
+            }
+            context.report(PlanContext.Stage.PRICING, ++done, total);
+        }
+        writePriced(context);
+    }
+
+    // Writes the ingredients priced since the last write as one batched upsert in a short transaction
+    private void writePriced(PlanContext context) {
+        if (context.unwrittenCount() > 0) {
+            pricedIngredientWriter.write(context.drainUnwritten());
+        }
+    }
+
     //returns a meal cost of a function by calcualting ingredient cost
-    private double getMealCost(Recipe recipe, ArrayList<Ingredient> priceList) throws Exception {
+    private double getMealCost(Recipe recipe, PlanContext context) throws Exception {
         double mealCost = 0.0;
         Set<String> processedIngredients = new HashSet<>();
 
-        for (Map.Entry<String, String> entry : recipe.getIngredients().entrySet()) {
+        for (Map.Entry<String, IngredientMeasure> entry : recipe.getMeasures().entrySet()) {
             String ingName = entry.getKey();
-            String usedAmount = entry.getValue();
+            IngredientMeasure usedAmount = entry.getValue();
             String query = ingName.trim().toLowerCase();
 
             // Skip duplicates
@@ -127,11 +315,11 @@ public class MealPlanService {
             }
 
             // Get ingredient from cache, DB, or API
-            Optional<Ingredient> ingredient = getOrFetchIngredient(ingName, query, priceList);
+            Optional<Ingredient> ingredient = getOrFetchIngredient(ingName, query, context);
 
             if (ingredient.isPresent()) {
                 // Calculate cost for this ingredient
-                double ingredientCost = calculateIngredientCost(ingredient.get(), ingName, usedAmount, recipe);
+                double ingredientCost = calculateIngredientCost(ingredient.get(), ingName, usedAmount);
 
                 if (ingredientCost >= 0) {
                     mealCost += ingredientCost;
@@ -141,168 +329,155 @@ public class MealPlanService {
             }
         }
 
+        if (!Objects.equals(recipe.getMealCost(), mealCost)) {
+            context.mealCostChanged(recipe.getId(), mealCost);
+        }
         recipe.setMealCost(mealCost);
         return mealCost;
     }
 
+    // Puts the meal costs worked out while pricing on the recipe rows, which were loaded before this transaction began
+    private void writeMealCosts(PlanContext context) {
+        Map<Long, Double> costs = context.getMealCosts();
+        if (costs.isEmpty()) {
+            return;
+        }
+        for (Recipe recipe : recipeRepository.findAllById(costs.keySet())) {
+            recipe.setMealCost(costs.get(recipe.getId()));
+        }
+    }
+
     // Get ingredient from local cache, DB, or fetch from API
-    private Optional<Ingredient> getOrFetchIngredient(String ingName, String query, ArrayList<Ingredient> priceList) {
-        // Check local cache first
-        Optional<Ingredient> local = priceList.stream()
-                .filter(i -> i != null && i.getName() != null)
-                .filter(i -> i.getName().trim().toLowerCase().equals(query))
-                .findFirst();
-
-        if (local.isPresent()) {
+    private Optional<Ingredient> getOrFetchIngredient(String ingName, String query, PlanContext context) {
+        // Check this plan's priced ingredients first
+        Ingredient local = context.priced(query);
+
+        if (local != null) {
             log.info("Already found locally: {}", ingName);
-            return local;
+            return Optional.of(local);
+        }
+        if (context.isUnpriced(query)) {
+            return Optional.empty();
         }
 
         // Check database
         Optional<Ingredient> dbIngredient = ingredientRepository.findByNameIgnoreCase(query);
 
         if (dbIngredient.isPresent()) {
-            return handleDatabaseIngredient(dbIngredient.get(), ingName, query, priceList);
+            return handleDatabaseIngredient(dbIngredient.get(), ingName, query, context);
         }
 
         // Fetch from API as last resort
-        return fetchNewIngredient(ingName, query, priceList);
+        return fetchNewIngredient(ingName, query, context);
     }
 
     // Handle ingredient found in database (check cache validity)
-    private Optional<Ingredient> handleDatabaseIngredient(Ingredient dbIng, String ingName, String query, ArrayList<Ingredient> priceList) {
+    private Optional<Ingredient> handleDatabaseIngredient(Ingredient dbIng, String ingName, String query, PlanContext context) {
         log.info("Found in DB: {}", ingName);
         log.info("Cache valid? {}", dbIng.isCacheValid());
 
         if (dbIng.isCacheValid()) {
-            priceList.add(dbIng);
+            context.addPriced(dbIng);
             return Optional.of(dbIng);
         }
 
         // Cache expired - refresh from db
-        return refreshIngredientFromAPI(dbIng, ingName, query, priceList);
+        return refreshIngredientFromAPI(dbIng, ingName, query, context);
     }
 
     // Refresh expired ingredient from db
-    private Optional<Ingredient> refreshIngredientFromAPI(Ingredient dbIng, String ingName, String query, ArrayList<Ingredient> priceList) {
-        try {
-            Ingredient fresh = priceService.getIngredient(ingName);
-            if (fresh != null) {
-                fresh.setId(dbIng.getId());
-                fresh.setName(query);
-
-                priceList.add(fresh);
-                ingredientRepository.save(fresh);
-                ingredientRepository.flush();
-
-                log.info("Refreshed DB ingredient: {}", ingName);
-                return Optional.of(fresh);
-            }
-        } catch (Exception e) {
-            log.error("Error refreshing ingredient: {}", ingName, e);
-        }
-        return Optional.empty();
+    private Optional<Ingredient> refreshIngredientFromAPI(Ingredient dbIng, String ingName, String query, PlanContext context) {
+        Ingredient fresh = requestPrice(ingName);
+        return fresh == null ? Optional.empty() : storePrice(dbIng, fresh, ingName, query, context);
     }
 
     // Fetch new ingredient from db
-    private Optional<Ingredient> fetchNewIngredient(String ingName, String query, ArrayList<Ingredient> priceList) {
+    private Optional<Ingredient> fetchNewIngredient(String ingName, String query, PlanContext context) {
+        Ingredient fresh = requestPrice(ingName);
+        return fresh == null ? Optional.empty() : storePrice(null, fresh, ingName, query, context);
+    }
+
+    // Asks the price API for an ingredient, null when nothing matched or the call failed. Safe to call off the request thread
+    private Ingredient requestPrice(String ingName) {
         try {
             Ingredient fresh = priceService.getIngredient(ingName);
-            if (fresh != null) {
-                fresh.setName(query);
-
-                priceList.add(fresh);
-                ingredientRepository.save(fresh);
-                ingredientRepository.flush();
-
-                log.info("Fetched NEW ingredient and saved: {}", ingName);
-                return Optional.of(fresh);
-            } else {
+            if (fresh == null) {
                 log.warn("Could not fetch ingredient from API: {}", ingName);
             }
+            return fresh;
         } catch (Exception e) {
             log.error("Error fetching ingredient: {}", ingName, e);
+            return null;
         }
-        return Optional.empty();
     }
 
-    // Calculate cost for a single ingredient
-    private double calculateIngredientCost(Ingredient ingredient, String ingName, String usedAmount, Recipe recipe) {
-        // Parse amounts
-        double recipeAmount = parseRecipeAmount(usedAmount, recipe);
-        double packageAmount = parsePackageAmount(ingredient.getServingsPerContainer(), recipe, usedAmount);
+    // Queues a freshly priced ingredient for the next batched write, over the expired row when there is one
+    private Optional<Ingredient> storePrice(Ingredient dbIng, Ingredient fresh, String ingName, String query, PlanContext context) {
+        // the upsert matches rows on their name, so a refresh keeps the stored one
+        if (dbIng != null) {
+            fresh.setId(dbIng.getId());
+            fresh.setName(dbIng.getName());
+        } else {
+            fresh.setName(query);
+        }
+
+        context.addPriced(fresh);
+        context.bufferWrite(fresh);
+        if (context.unwrittenCount() >= writeBatch) {
+            writePriced(context);
+        }
+
+        log.info(dbIng != null ? "Refreshed DB ingredient: {}" : "Fetched NEW ingredient: {}", ingName);
+        return Optional.of(fresh);
+    }
 
-        log.info("Ingredient: {} | Recipe needs: {} {} | Package size: {} | Package price: ${}",
-                ingName, recipeAmount, getUnitType(usedAmount), packageAmount, ingredient.getTotalPrice());
+    // Calculate cost for a single ingredient from the quantities normalized when recipe and ingredient were saved
+    public double calculateIngredientCost(Ingredient ingredient, String ingName, IngredientMeasure usedAmount) {
+        Quantity required = usedAmount.getQuantity();
+        Quantity pack = ingredient.getPackageQuantity();
+
+        double recipeAmount = required.amount();
+        double packageAmount = pack.amount();
+
+        log.info("Ingredient: {} | Recipe needs: {} {} | Package size: {} {} | Package price: ${}",
+                ingName, recipeAmount, required.dimension(), packageAmount, pack.dimension(), ingredient.getTotalPrice());
+
+        // Check for unit mismatch
+        if (hasUnitMismatch(required, pack)) {
+            if (required.isMeasured()) {
+                return handleUnitMismatch(ingredient, ingName, usedAmount.getMeasure());
+            }
+            // Counted (or unparsed) recipe amount against a package in other units: price by the package's own number
+            packageAmount = leadingNumber(ingredient.getServingsPerContainer());
+        }
 
         if (packageAmount <= 0) {
             log.warn("Could not calculate cost for {} - packageAmount is 0", ingName);
             return -1;
         }
 
-        // Check for unit mismatch
-        if (hasUnitMismatch(usedAmount, ingredient.getServingsPerContainer(), packageAmount)) {
-            return handleUnitMismatch(ingredient, ingName, usedAmount);
-        }
-
         // Calculate normal cost
         return calculateNormalCost(ingredient, ingName, recipeAmount, packageAmount);
     }
 
-    // Parse recipe amount based on unit type
-    private double parseRecipeAmount(String usedAmount, Recipe recipe) {
-        if (usedAmount.endsWith("g") || usedAmount.endsWith("kg")) {
-            return recipe.parseToGrams(usedAmount);
-        } else if (usedAmount.endsWith("ml") || usedAmount.endsWith("l")) {
-            return recipe.parseToMilliliters(usedAmount);
-        } else if (usedAmount.endsWith("tsb") || usedAmount.endsWith("tbs") || usedAmount.endsWith("tblsp")) {
-            return recipe.parseToTeaspoons(usedAmount);
-        } else {
-            // Handle count-based measurements
-            Matcher m = Pattern.compile("(\\d+\\.?\\d*)").matcher(usedAmount);
-            if (m.find()) {
-                return Double.parseDouble(m.group(1));
-            }
-        }
-        return 0;
-    }
-
-    // Parse package amount based on unit type
-    private double parsePackageAmount(String servingsPerContainer, Recipe recipe, String usedAmount) {
-        if (usedAmount.endsWith("g") || usedAmount.endsWith("kg")) {
-            return recipe.parseToGrams(servingsPerContainer);
-        } else if (usedAmount.endsWith("ml") || usedAmount.endsWith("l")) {
-            return recipe.parseToMilliliters(servingsPerContainer);
-        } else if (usedAmount.endsWith("tsb") || usedAmount.endsWith("tbs") || usedAmount.endsWith("tblsp")) {
-            return recipe.parseToTeaspoons(servingsPerContainer);
-        } else {
-            // Handle count-based measurements
-            Matcher m = Pattern.compile("(\\d+\\.?\\d*)").matcher(servingsPerContainer);
-            if (m.find()) {
-                return Double.parseDouble(m.group(1));
-            }
+    // Amounts only divide when both sides are in the same dimension; mass and volume convert at the density of water
+    private boolean hasUnitMismatch(Quantity required, Quantity pack) {
+        if (required.dimension() == UnitDimension.UNKNOWN || pack.dimension() == UnitDimension.UNKNOWN) {
+            return true;
         }
-        return 0;
+        return required.dimension() != pack.dimension() && !(required.isMeasured() && pack.isMeasured());
     }
 
-    // Check if recipe and package units don't match
-    private boolean hasUnitMismatch(String usedAmount, String servingsPerContainer, double packageAmount) {
-        boolean recipeIsWeight = usedAmount.contains("g") || usedAmount.contains("kg") ||
-                usedAmount.contains("ml") || usedAmount.contains("l");
-
-        boolean packageIsWeight = servingsPerContainer.contains("g") ||
-                servingsPerContainer.contains("kg") ||
-                servingsPerContainer.contains("ml") ||
-                servingsPerContainer.contains("l") ||
-                servingsPerContainer.contains("oz") ||
-                servingsPerContainer.contains("lb");
-
-        return recipeIsWeight && !packageIsWeight && packageAmount < 100;
+    // First number written in a package size, e.g. 3 for "3 lb"
+    private static double leadingNumber(String text) {
+        if (text == null) return 0;
+        Matcher m = LEADING_NUMBER.matcher(text);
+        return m.find() ? Double.parseDouble(m.group(1)) : 0;
     }
 
     // Handle unit mismatch by using package estimate
     private double handleUnitMismatch(Ingredient ingredient, String ingName, String usedAmount) {
-        log.warn("UNIT MISMATCH for {}: Recipe needs weight/volume ({}) but package is count ({})",
+        log.warn("UNIT MISMATCH for {}: Recipe needs weight/volume ({}) but package is not ({})",
                 ingName, usedAmount, ingredient.getServingsPerContainer());
         log.warn("Using package price as rough estimate instead of calculation");
 
@@ -338,26 +513,6 @@ public class MealPlanService {
         return ingredientCost;
     }
 
-    // Helper method to determine unit type for logging
-    public String getUnitType(String amount) {
-        String lower = amount.toLowerCase().trim();
-
-        if (lower.endsWith("g") || lower.endsWith("kg") || lower.contains(" g") || lower.contains(" kg")) {
-            return "grams";
-        }
-
-        if (lower.endsWith("ml") || lower.endsWith("l") || lower.contains("fl oz")) {
-            return "ml";
-        }
-
-        if (lower.endsWith("tsp") || lower.endsWith("tbsp") || lower.contains(" tsp") || lower.contains(" tbsp")) {
-            return "tsp";
-        }
-
-        return "count";
-    }
-
-
     //unused for now
     public int getServingSize(Recipe recipe) {
         int proteinWeight = recipe.extract_weight("Chicken");
@@ -440,7 +595,8 @@ public class MealPlanService {
     }
 
     //Find all user meals and generate new recipe list based off requirements of calories and existing recipes
-    public List<Recipe> generateSubRecipeList(int req, int calorie, List<UserMealPlan> existingPlan, List<Recipe> alreadySelected, ArrayList<Recipe> recipieList) {
+    public List<Recipe> generateSubRecipeList(int req, int calorie, List<UserMealPlan> existingPlan, List<Recipe> alreadySelected,
+                                              List<Recipe> recipieList, BitSet exclusions) {
         List<Recipe> allMeals = existingPlan.stream()
                 .filter(Objects::nonNull)
                 .filter(plan -> plan.getRecipe() != null)
@@ -451,16 +607,24 @@ public class MealPlanService {
                 .collect(Collectors.toList());
 
         List<Recipe> list = new ArrayList<>(alreadySelected);
+        // Exclusions are keyed by recipe id, entity equality on @Data recipes compares every field
+        Set<Long> selected = list.stream().map(Recipe::getId).collect(Collectors.toCollection(HashSet::new));
+        // the catalog holds every recipe, so picks from it must also respect the user's allergies and diet
+        LongPredicate skipCatalog = id -> selected.contains(id) || allergenIndex.excludes(exclusions, id);
         int min = calorie / req;
         int needed = req - list.size();
 
         log.info("Generating meal plan: need {}, have {}, available from history: {}",
                 req, list.size(), allMeals.size());
 
+        Map<Long, Recipe> historyById = byId(allMeals);
+        Map<Long, Recipe> localById = recipieList != null ? byId(recipieList) : Map.of();
+        CalorieIndex history = CalorieIndex.of(historyById.values());
+        CalorieIndex local = CalorieIndex.of(localById.values());
 
         if (!allMeals.isEmpty()) {
-            //fetch meals in plan, in memory or db
-            fetchAllMeals(allMeals, list, req, min, recipieList);
+            //fetch meals in plan, in memory or from the catalog index
+            fetchAllMeals(history, historyById, local, localById, list, selected, skipCatalog, req, min);
         }
 
         int totalCalories = list.stream().mapToInt(Recipe::getCalories).sum();
@@ -468,27 +632,28 @@ public class MealPlanService {
         int gap = calorie - totalCalories;
         if (gap > 200) {
 
-            // Try to find a recipe to fill the calorie gap in memory or from list
+            // Try to find a recipe to fill the calorie gap in memory, then from the catalog
             Recipe closestRecipe = null;
-            if (existingPlan != null) {
-                closestRecipe = allMeals.stream()
-                        .filter(r -> !list.contains(r))
-                        .min(Comparator.comparingInt(r -> Math.abs(r.getCalories() - gap)))
-                        .orElse(null);
+            long id = history.nearest(gap, selected::contains);
+            if (id >= 0) {
+                closestRecipe = historyById.get(id);
             }
 
-            if (closestRecipe == null && recipieList != null) {
-                closestRecipe = recipieList.stream()
-                        .filter(r -> !list.contains(r))
-                        .min(Comparator.comparingInt(r -> Math.abs(r.getCalories() - gap)))
-                        .orElse(null);
+            if (closestRecipe == null) {
+                id = local.nearest(gap, selected::contains);
+                if (id >= 0) {
+                    closestRecipe = localById.get(id);
+                }
             }
 
             if (closestRecipe == null) {
-                closestRecipe = recipeRepository.findClosestToCalorieTarget(gap, 0, Integer.MAX_VALUE);
+                id = catalogCalories.nearest(gap, skipCatalog);
+                if (id >= 0) {
+                    closestRecipe = recipeRepository.findById(id).orElse(null);
+                }
             }
 
-            if (closestRecipe != null && !list.contains(closestRecipe)) {
+            if (closestRecipe != null && selected.add(closestRecipe.getId())) {
                 list.add(closestRecipe);
 
             }
@@ -497,53 +662,61 @@ public class MealPlanService {
         return list;
     }
 
-    private List<Recipe> fetchAllMeals(List<Recipe> allMeals, List<Recipe> list, int req, int min, ArrayList<Recipe> recipieList) {
-        for (Recipe recipe : allMeals) {
-            if (list.size() >= req) break;
-            if (list.contains(recipe)) continue;
-
-            if (recipe.getCalories() >= min - 120 && recipe.getCalories() <= min + 120) {
-                list.add(recipe);
-                log.info("Added from history: {}", recipe.getName());
-            }
+    private void fetchAllMeals(CalorieIndex history, Map<Long, Recipe> historyById, CalorieIndex local,
+                               Map<Long, Recipe> localById, List<Recipe> list, Set<Long> selected, LongPredicate skipCatalog,
+                               int req, int min) {
+        for (long id : history.closest(min, 120, req - list.size(), selected::contains)) {
+            Recipe recipe = historyById.get(id);
+            list.add(recipe);
+            selected.add(id);
+            log.info("Added from history: {}", recipe.getName());
         }
 
 
         //secondary fetch in-memory to find recipes
-        if (list.size() < req && recipieList != null) {
-            for (Recipe recipe : recipieList) {
-                if (list.size() >= req) break;
-
-                if (!list.contains(recipe) &&
-                        recipe.getCalories() >= min - 120 &&
-                        recipe.getCalories() <= min + 120) {
-                    list.add(recipe);
-                    log.info("Added from local list: {}", recipe.getName());
-                }
+        if (list.size() < req) {
+            for (long id : local.closest(min, 120, req - list.size(), selected::contains)) {
+                Recipe recipe = localById.get(id);
+                list.add(recipe);
+                selected.add(id);
+                log.info("Added from local list: {}", recipe.getName());
             }
         }
 
+        // last resort, the catalog index picks ids and only those rows are loaded
         if (list.size() < req) {
-            List<Recipe> dbRecipes = recipeRepository.findByCaloriesBetween(min - 120, min + 120);
-            for (Recipe recipe : dbRecipes) {
-                if (list.size() >= req) break;
-                if (!list.contains(recipe)) {
+            List<Long> ids = catalogCalories.closest(min, 120, req - list.size(), skipCatalog);
+            Map<Long, Recipe> found = recipeRepository.findAllById(ids).stream()
+                    .collect(Collectors.toMap(Recipe::getId, r -> r));
+            for (long id : ids) {
+                Recipe recipe = found.get(id);
+                if (recipe != null && selected.add(id)) {
                     list.add(recipe);
-
                 }
-
             }
         }
-        return list;
+    }
+
+    private Map<Long, Recipe> byId(List<Recipe> recipes) {
+        Map<Long, Recipe> map = new HashMap<>();
+        for (Recipe recipe : recipes) {
+            if (recipe != null) map.putIfAbsent(recipe.getId(), recipe);
+        }
+        return map;
     }
 
 
     //Selects a required amount of meals for the user's new meal plan of the day, opts out for early returns where able
-    public List<Recipe> selectMeals(@AuthenticationPrincipal UserDetails userDetails, ArrayList<Recipe> recipeList) {
+    public List<Recipe> selectMeals(@AuthenticationPrincipal UserDetails userDetails, List<Recipe> recipeList) {
         String email = userDetails.getUsername();
         User user = userRepository.findByEmail(email)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found"));
 
+        return selectMeals(user, recipeList);
+    }
+
+    //Same as above for a user the caller already loaded, ideally with their plan fetched
+    public List<Recipe> selectMeals(User user, List<Recipe> recipeList) {
         int req = user.getPreferences().getMeals();
         int calorie = user.getPreferences().getCalories();
         List<Recipe> subList = new ArrayList<>();
@@ -586,14 +759,16 @@ public class MealPlanService {
 
                 updateUserPlan(existingPlan, plannedMeals);
 
-                user.setMealPlans(existingPlan);
+                // the day's eaten meals are history now, they move to the archive instead of staying on the plan
+                user.setMealPlans(mealPlanArchiver.archive(user, existingPlan));
                 userRepository.save(user);
                 log.info("Saved user with unmarked meal plans");
 
                 subList.clear();
                 existingPlan = new ArrayList<>(user.getMealPlans());
 
-                subList = generateSubRecipeList(req, calorie, existingPlan, subList, recipeList);
+                subList = generateSubRecipeList(req, calorie, existingPlan, subList, recipeList,
+                        allergenIndex.exclusions(user.getPreferences()));
 
 
             } else if (subList.size() == req || subList.size() == req + 1) {
@@ -606,7 +781,8 @@ public class MealPlanService {
         // Build new meal plan if we don't have enough
         if (subList.size() < req) {
             log.info("Need more meals. Generating {} meals...", req - subList.size());
-            subList = generateSubRecipeList(req, calorie, existingPlan, subList, recipeList);
+            subList = generateSubRecipeList(req, calorie, existingPlan, subList, recipeList,
+                    allergenIndex.exclusions(user.getPreferences()));
         }
 
         subList = savePlannedMeals(subList, existingPlan, user);
@@ -672,46 +848,20 @@ public class MealPlanService {
     }
 
     //Finds and save's recipe meal plans
-    public void findAndSaveMealPlan(User user, ArrayList<Recipe> recipieList, ArrayList<Ingredient> priceList) {
-        // Get existing ingredient names in grocery list to avoid duplicates
-        Set<String> existingIngredientNames = user.getGroceryList().stream()
-                .map(ui -> ui.getIngredient().getName().toLowerCase())
-                .collect(Collectors.toSet());
-
-        List<String> commonItems = Arrays.asList("salt", "pepper", "water", "sugar", "oil",
-                "olive oil", "flour", "rice", "baking powder", "soy sauce", "vinegar", "cumin",
-                "butter", "parsley", "garlic", "onion powder", "paprika",
-                "black pepper", "kosher salt", "ketchup", "sauce", "sake", "null", "honey", "paneer", "powder", "spice");
-
+    public void findAndSaveMealPlan(User user, PlanContext context) {
+        List<Recipe> recipieList = context.getRecipes();
         for (Recipe recipe : recipieList) {
             // Add to meal plan
             UserMealPlan mealPlan = new UserMealPlan(user, recipe);
             user.getMealPlans().add(mealPlan);
-
-            recipe.getIngredients().keySet().forEach(ingredientName -> {
-                String lowerName = ingredientName.toLowerCase().trim();
-
-                // Skip if already in grocery list
-                if (existingIngredientNames.contains(lowerName)) {
-                    return;
-                }
-
-                // Check if ingredient contains any common item
-                boolean isCommonItem = commonItems.stream()
-                        .anyMatch(common -> lowerName.contains(common) || common.contains(lowerName));
-
-                if (!isCommonItem) {
-                    priceList.stream()
-                            .filter(ing -> ing.getName().equalsIgnoreCase(ingredientName))
-                            .findFirst()
-                            .ifPresent(ingredient -> {
-                                UserIngredient userIngredient = new UserIngredient(user, ingredient);
-                                user.getGroceryList().add(userIngredient);
-                                existingIngredientNames.add(lowerName); // Track it
-                            });
-                }
-            });
         }
+
+        // Sum each ingredient across the plan into one grocery row, skipping pantry staples
+        // ingredients the context had no room for were saved while pricing, so fall back to the DB
+        groceryListService.addRecipes(user, recipieList, name -> {
+            Ingredient ingredient = context.priced(name);
+            return ingredient != null ? ingredient : ingredientRepository.findByNameIgnoreCase(name).orElse(null);
+        });
     }
 
     //Removes all duplicate meal plans from a specified user meal plan
@@ -730,12 +880,32 @@ public class MealPlanService {
         );
     }
 
-    //Returns a random meal from a query
+    //Returns two random meals
     public List<Recipe> random() {
-        int req = 2;
-        List<Recipe> subList = recipeRepository.findRandomRecipes(req);
+        return random(2, Set.of());
+    }
 
-        return subList;
+    // Random meals spread over the categories, drawn from the in-memory sampler and loaded by id.
+    // Ids the sampler still knows but that are gone from the table are skipped and redrawn
+    public List<Recipe> random(int count, Set<Long> exclude) {
+        Set<Long> skip = new HashSet<>(exclude);
+        List<Recipe> picked = new ArrayList<>(count);
+        for (int round = 0; round < 3 && picked.size() < count; round++) {
+            List<Long> ids = recipeSampler.sampleBalanced(count - picked.size(), skip::contains);
+            if (ids.isEmpty()) {
+                break;
+            }
+            skip.addAll(ids);
+            Map<Long, Recipe> found = recipeRepository.findAllById(ids).stream()
+                    .collect(Collectors.toMap(Recipe::getId, recipe -> recipe));
+            for (Long id : ids) {
+                Recipe recipe = found.get(id);
+                if (recipe != null) {
+                    picked.add(recipe);
+                }
+            }
+        }
+        return picked;
     }
 
 
@@ -791,11 +961,11 @@ public class MealPlanService {
     public Integer getProgress(User user) {
         int calories = user.getPreferences().getCalories();
 
-        // Query db for eaten calories
-        Integer eatenCalories = recipeRepository.findEatenRecipesByUserID(user.getId());
+        // Today's eaten calories from the intake rollup
+        int eatenCalories = intakeService.caloriesOn(user.getId(), LocalDate.now());
 
-        // Handle null case (no eaten meals yet)
-        if (eatenCalories == null || eatenCalories == 0) {
+        // No eaten meals yet
+        if (eatenCalories == 0) {
             return 0;
         }
 
@@ -0,0 +1,8 @@
+package spring.demo.service; // thrown when a user's plan is locked by another change for longer than the configured wait
+
+public class PlanBusyException extends RuntimeException {
+
+    public PlanBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+Working state for generating one user's meal plan: the candidate recipes and the ingredients priced along the way.
+A new context is made for every plan, so parallel requests never share lists and nothing outlives the request.
+It is filled with no transaction open and then only read by the transaction that saves the plan.
+ */
+
+package spring.demo.service;
+
+import spring.demo.models.Ingredient;
+import spring.demo.models.Recipe;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+public class PlanContext {
+
+    // Pipeline steps in the order they run
+    public enum Stage { QUEUED, LOADED, DIET_FILTERED, INGREDIENT_FILTERED, CALORIE_FILTERED, PRICING, PRICE_FILTERED, SELECTED }
+
+    // recipes left after a stage out of the candidates loaded; for PRICING, ingredients priced out of those to price
+    public record Progress(Stage stage, int count, int total) {
+    }
+
+    private final int maxPriced;
+    private volatile Progress progress = new Progress(Stage.QUEUED, 0, 0);
+    private Consumer<Progress> listener = p -> {
+    };
+    // priced ingredients by lowercase name, insertion ordered so saving keeps the order they were fetched in
+    private final Map<String, Ingredient> priced = new LinkedHashMap<>();
+    // priced ingredients not written to the database yet, see MealPlanService.writePriced
+    private final Map<String, Ingredient> unwritten = new LinkedHashMap<>();
+    // names the price API had nothing for, so the plan doesn't ask twice
+    private final Set<String> unpriced = new HashSet<>();
+    private ArrayList<Recipe> recipes = new ArrayList<>();
+    // meal costs that changed while pricing, by recipe id, written when the plan is saved
+    private final Map<Long, Double> mealCosts = new HashMap<>();
+
+    public PlanContext(int maxPriced) {
+        this.maxPriced = maxPriced;
+    }
+
+    // Called with every progress update, from the thread generating the plan
+    public void onProgress(Consumer<Progress> listener) {
+        this.listener = listener;
+    }
+
+    public void report(Stage stage, int count, int total) {
+        progress = new Progress(stage, count, total);
+        listener.accept(progress);
+    }
+
+    public Progress getProgress() {
+        return progress;
+    }
+
+    public ArrayList<Recipe> getRecipes() {
+        return recipes;
+    }
+
+    public void setRecipes(ArrayList<Recipe> recipes) {
+        this.recipes = recipes;
+    }
+
+    // Ingredient priced earlier in this plan, or null
+    public Ingredient priced(String name) {
+        if (name == null) return null;
+        String key = name.trim().toLowerCase();
+        Ingredient ingredient = priced.get(key);
+        return ingredient != null ? ingredient : unwritten.get(key);
+    }
+
+    // Remembers a priced ingredient, returns false once the context is full (the ingredient is still written to the DB)
+    public boolean addPriced(Ingredient ingredient) {
+        if (ingredient == null || ingredient.getName() == null) return false;
+        String name = ingredient.getName().trim().toLowerCase();
+        if (priced.containsKey(name)) return true;
+        if (priced.size() >= maxPriced) return false;
+        priced.put(name, ingredient);
+        return true;
+    }
+
+    // Holds a priced ingredient until the next batched write, it can be found with priced() meanwhile
+    public void bufferWrite(Ingredient ingredient) {
+        unwritten.put(ingredient.getName().trim().toLowerCase(), ingredient);
+    }
+
+    public int unwrittenCount() {
+        return unwritten.size();
+    }
+
+    public List<Ingredient> drainUnwritten() {
+        List<Ingredient> drained = new ArrayList<>(unwritten.values());
+        unwritten.clear();
+        return drained;
+    }
+
+    public void markUnpriced(String name) {
+        if (unpriced.size() < maxPriced) {
+            unpriced.add(name.trim().toLowerCase());
+        }
+    }
+
+    public boolean isUnpriced(String name) {
+        return unpriced.contains(name.trim().toLowerCase());
+    }
+
+    // True once the name has been priced or found to have no price in this plan
+    public boolean isResolved(String name) {
+        return priced(name) != null || isUnpriced(name);
+    }
+
+    public void mealCostChanged(long recipeId, double mealCost) {
+        mealCosts.put(recipeId, mealCost);
+    }
+
+    public Map<Long, Double> getMealCosts() {
+        return mealCosts;
+    }
+
+    public Collection<Ingredient> pricedIngredients() {
+        return priced.values();
+    }
+
+    public int pricedCount() {
+        return priced.size();
+    }
+}
@@ -0,0 +1,256 @@
+package spring.demo.service; // one queued or running meal plan generation, polled or streamed through the job endpoints
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import spring.demo.models.Recipe;
+import spring.demo.models.RecipeSummary;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+public class PlanJob {
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    // events a subscriber can fall behind by before further progress is dropped for it; "done" and "failed" always get through
+    private static final int PENDING_LIMIT = 16;
+
+    // what subscribers receive: a progress update named after its stage, then "done" or "failed" with the job
+    public record Event(String name, Object data) {
+        public boolean isTerminal() {
+            return name.equals("done") || name.equals("failed");
+        }
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    @JsonIgnore
+    private final Long userId;
+    @JsonIgnore
+    private final String email;
+    // the working state while the job runs, dropped when it finishes so a kept job holds only its result
+    private volatile PlanContext context;
+    private volatile PlanContext.Progress finalProgress;
+    private final Instant createdAt = Instant.now();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant finishedAt;
+    private volatile List<RecipeSummary> recipes;
+    private volatile String error;
+
+    // latest update per stage, replayed to late subscribers so the history stays a handful of entries
+    private final Map<PlanContext.Stage, PlanContext.Progress> stages = new EnumMap<>(PlanContext.Stage.class);
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // orders updates against the replay to a new subscriber; only queues events, sending happens on the delivery executor
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Executor delivery;
+
+    public PlanJob(Long userId, String email, PlanContext context, Executor delivery) {
+        this.userId = userId;
+        this.email = email;
+        this.context = context;
+        this.delivery = delivery;
+        context.onProgress(this::progress);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public PlanContext.Progress getProgress() {
+        PlanContext running = context;
+        return running != null ? running.getProgress() : finalProgress;
+    }
+
+    // The job's working state, null once it has finished
+    @JsonIgnore
+    public PlanContext getContext() {
+        return context;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    // The finished plan, null until the job is done
+    public List<RecipeSummary> getRecipes() {
+        return recipes;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED;
+    }
+
+    // Streams this job's events to the consumer, starting with the stages already reached. Events are handed over on the
+    // delivery executor, never on the thread generating the plan. A consumer that throws is dropped; the returned handle unsubscribes
+    public Runnable subscribe(Consumer<Event> consumer) {
+        Subscriber subscriber = new Subscriber(consumer);
+        lock.lock();
+        try {
+            for (PlanContext.Progress progress : stages.values()) {
+                subscriber.offer(event(progress));
+            }
+            if (isFinished()) {
+                subscriber.offer(finishedEvent());
+            } else {
+                subscribers.add(subscriber);
+            }
+            return subscriber::close;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void progress(PlanContext.Progress progress) {
+        lock.lock();
+        try {
+            stages.put(progress.stage(), progress);
+            publish(event(progress));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void publish(Event event) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(event);
+        }
+    }
+
+    private void finish() {
+        lock.lock();
+        try {
+            publish(finishedEvent());
+            subscribers.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Event event(PlanContext.Progress progress) {
+        return new Event(progress.stage().name().toLowerCase(), progress);
+    }
+
+    private Event finishedEvent() {
+        return new Event(status == Status.DONE ? "done" : "failed", this);
+    }
+
+    private static boolean isPricing(Event event) {
+        return event.data() instanceof PlanContext.Progress progress && progress.stage() == PlanContext.Stage.PRICING;
+    }
+
+    // One consumer's events not sent yet, drained in order by one task at a time so a slow connection only holds up itself.
+    // Its monitor guards the queue and is never held while sending
+    private final class Subscriber {
+        private final Consumer<Event> consumer;
+        private final ArrayDeque<Event> pending = new ArrayDeque<>();
+        private boolean sending;
+        private boolean closed;
+
+        Subscriber(Consumer<Event> consumer) {
+            this.consumer = consumer;
+        }
+
+        void offer(Event event) {
+            synchronized (this) {
+                if (closed) return;
+                if (isPricing(event) && !pending.isEmpty() && isPricing(pending.peekLast())) {
+                    // behind already, so the newer count replaces the one it hasn't been sent
+                    pending.pollLast();
+                } else if (pending.size() >= PENDING_LIMIT && !event.isTerminal()) {
+                    return;
+                }
+                pending.add(event);
+                if (sending) return;
+                sending = true;
+            }
+            try {
+                delivery.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                close();
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Event event;
+                synchronized (this) {
+                    event = closed ? null : pending.poll();
+                    if (event == null) {
+                        sending = false;
+                        return;
+                    }
+                }
+                try {
+                    consumer.accept(event);
+                } catch (RuntimeException e) {
+                    close();
+                    return;
+                }
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                closed = true;
+                pending.clear();
+            }
+            subscribers.remove(this);
+        }
+    }
+
+    void running() {
+        status = Status.RUNNING;
+    }
+
+    void done(List<Recipe> recipes) {
+        this.recipes = RecipeSummary.of(recipes);
+        release();
+        this.finishedAt = Instant.now();
+        this.status = Status.DONE;
+        finish();
+    }
+
+    void failed(String error) {
+        this.error = error;
+        release();
+        this.finishedAt = Instant.now();
+        this.status = Status.FAILED;
+        finish();
+    }
+
+    // Keeps the last progress and lets go of the candidate recipes and priced ingredients
+    private void release() {
+        PlanContext running = context;
+        if (running != null) {
+            finalProgress = running.getProgress();
+            running.onProgress(p -> {
+            });
+            context = null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+Runs meal plan generation in the background so onboarding doesn't hold a request thread while ingredients are priced.
+Jobs run on a bounded pool, a user only ever has one job in flight, and finished jobs are kept for a while for polling,
+holding just their result.
+ */
+
+package spring.demo.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import spring.demo.models.PlanChangedEvent;
+import spring.demo.models.Recipe;
+import spring.demo.models.User;
+import spring.demo.models.UserPreference;
+import spring.demo.models.repository.UserRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+@Service
+public class PlanJobService {
+
+    private static final int MIN_PLAN_SIZE = 13;
+
+    private final MealPlanService mealPlanService;
+    private final UserRepository userRepository;
+    private final PlanLockService planLockService;
+    private final ApplicationEventPublisher publisher;
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService planEventsExecutor;
+    private final Duration retention;
+    private static final Logger log = LoggerFactory.getLogger(PlanJobService.class);
+
+    private final Map<String, PlanJob> jobs = new ConcurrentHashMap<>();
+    // the unfinished job of each user, so repeated submits join it instead of starting another
+    private final Map<Long, PlanJob> active = new ConcurrentHashMap<>();
+
+    public PlanJobService(MealPlanService mealPlanService, UserRepository userRepository,
+                          PlanLockService planLockService, ApplicationEventPublisher publisher,
+                          @Qualifier("planEventsExecutor") ExecutorService planEventsExecutor,
+                          @Value("${plan.jobs.threads:4}") int threads,
+                          @Value("${plan.jobs.queue-capacity:64}") int queueCapacity,
+                          @Value("${plan.jobs.retention-minutes:30}") long retentionMinutes,
+                          @Value("${spring.threads.virtual.enabled:false}") boolean virtual) {
+        this.mealPlanService = mealPlanService;
+        this.userRepository = userRepository;
+        this.planLockService = planLockService;
+        this.publisher = publisher;
+        this.planEventsExecutor = planEventsExecutor;
+        this.retention = Duration.ofMinutes(retentionMinutes);
+
+        // still a bounded pool with virtual threads, the queue is what keeps submissions in check
+        ThreadFactory threadFactory = virtual
+                ? Thread.ofVirtual().name("plan-job-", 0).factory()
+                : Thread.ofPlatform().name("plan-job-", 0).factory();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Queues a plan for the user, new preferences are applied first when given (onboarding).
+    // Returns the user's running job instead if they already have one, throws RejectedExecutionException when the queue is full
+    public PlanJob submit(User user, UserPreference pref) {
+        PlanJob[] created = new PlanJob[1];
+        PlanJob job = active.compute(user.getId(), (userId, existing) -> {
+            if (existing != null && !existing.isFinished()) {
+                return existing;
+            }
+            created[0] = new PlanJob(userId, user.getEmail(), mealPlanService.newContext(), planEventsExecutor);
+            return created[0];
+        });
+
+        if (created[0] == null) {
+            log.info("Plan job {} already running for {}", job.getId(), user.getEmail());
+            return job;
+        }
+
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job, pref));
+        } catch (RejectedExecutionException e) {
+            active.remove(job.getUserId(), job);
+            jobs.remove(job.getId());
+            throw e;
+        }
+        log.info("Queued plan job {} for {}", job.getId(), user.getEmail());
+        return job;
+    }
+
+    // The job with this id if it belongs to the user
+    public Optional<PlanJob> find(String id, String email) {
+        PlanJob job = jobs.get(id);
+        if (job == null || !job.getEmail().equals(email)) {
+            return Optional.empty();
+        }
+        return Optional.of(job);
+    }
+
+    private void run(PlanJob job, UserPreference pref) {
+        job.running();
+        try {
+            // priced before the plan lock and transaction are taken, so the remote calls hold neither
+            User candidate = userRepository.findById(job.getUserId())
+                    .orElseThrow(() -> new IllegalStateException("User not found"));
+            if (pref != null) {
+                candidate.setPreferences(pref);
+            }
+            PlanContext context = job.getContext();
+            List<Recipe> candidates = mealPlanService.preparePlan(candidate, context);
+
+            // holds the user's plan lock like a synchronous change would, so edits made meanwhile wait or get a 409.
+            // A retried attempt reuses the prices, which were committed on their own and only get read here
+            List<Recipe> recipes = planLockService.mutate(job.getEmail(), () -> {
+                User user = userRepository.findById(job.getUserId())
+                        .orElseThrow(() -> new IllegalStateException("User not found"));
+                if (pref != null) {
+                    user.setPreferences(pref);
+                }
+                ArrayList<Recipe> plan = mealPlanService.savePlan(user, candidates, context);
+                publisher.publishEvent(new PlanChangedEvent(job.getEmail()));
+                return plan;
+            });
+
+            if (recipes == null || recipes.size() < MIN_PLAN_SIZE) {
+                job.failed("Not enough recipes matched the preferences");
+            } else {
+                job.done(recipes);
+            }
+            log.info("Plan job {} finished: {}", job.getId(), job.getStatus());
+        } catch (PlanBusyException e) {
+            log.warn("Plan job {} could not lock the plan: {}", job.getId(), e.getMessage());
+            job.failed("Another change to the meal plan is in progress, try again shortly");
+        } catch (Exception e) {
+            log.error("Plan job {} failed", job.getId(), e);
+            job.failed("Plan generation failed");
+        } finally {
+            active.remove(job.getUserId(), job);
+        }
+    }
+
+    // Forgets jobs that finished longer than the retention ago, on a timer so idle periods free them too
+    @Scheduled(fixedDelayString = "${plan.jobs.sweep-ms:60000}")
+    public void evictFinished() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(cutoff));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
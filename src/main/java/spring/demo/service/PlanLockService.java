@@ -0,0 +1,147 @@
+/*
+Serializes changes to one user's meal plan, preferences and grocery list so two tabs or a double click can't lose each other's updates.
+Users hash onto a fixed set of lock stripes, a caller waits a bounded time for its stripe, and the change runs in its own transaction
+that is retried when the @Version check finds another node got there first.
+ */
+
+package spring.demo.service;
+
+import jakarta.persistence.OptimisticLockException;
+import org.hibernate.StaleStateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+@Service
+public class PlanLockService {
+
+    // what GET /api/metrics/plan-locks reports
+    public record Stats(long acquired, long contended, long timedOut, long retried, long conflicts,
+                        double averageWaitMs, double maxWaitMs, int stripes) {
+    }
+
+    private final ReentrantLock[] stripes;
+    private final long waitNanos;
+    private final int retries;
+    private final TransactionTemplate transactionTemplate;
+    private static final Logger log = LoggerFactory.getLogger(PlanLockService.class);
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder waitedNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public PlanLockService(PlatformTransactionManager transactionManager,
+                           @Value("${plan.locks.stripes:1024}") int stripes,
+                           @Value("${plan.locks.wait-ms:5000}") long waitMs,
+                           @Value("${plan.locks.retries:3}") int retries) {
+        // a power of two so the stripe is a mask of the hash
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.waitNanos = TimeUnit.MILLISECONDS.toNanos(waitMs);
+        this.retries = retries;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    // Runs the change in a transaction while holding the user's stripe, retrying it when an optimistic check fails.
+    // Throws PlanBusyException when the stripe isn't free in time, the work must load the entities it changes itself
+    public <T> T mutate(String email, Supplier<T> work) {
+        ReentrantLock lock = stripeFor(email);
+
+        // already inside this user's change, the outer call owns the transaction and the retries
+        if (lock.isHeldByCurrentThread()) {
+            return work.get();
+        }
+
+        acquire(lock, email);
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    return transactionTemplate.execute(status -> work.get());
+                } catch (RuntimeException e) {
+                    if (!isConflict(e)) {
+                        throw e;
+                    }
+                    if (attempt >= retries) {
+                        conflicts.increment();
+                        log.warn("Giving up on plan change for {} after {} optimistic lock conflicts", email, attempt + 1);
+                        throw e;
+                    }
+                    retried.increment();
+                    log.info("Plan change for {} hit a concurrent update, retrying ({}/{})", email, attempt + 1, retries);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        long count = acquired.sum();
+        return new Stats(count, contended.sum(), timedOut.sum(), retried.sum(), conflicts.sum(),
+                count == 0 ? 0 : waitedNanos.sum() / 1e6 / count,
+                maxWaitNanos.get() / 1e6,
+                stripes.length);
+    }
+
+    private void acquire(ReentrantLock lock, String email) {
+        if (lock.tryLock()) {
+            acquired.increment();
+            return;
+        }
+
+        contended.increment();
+        long start = System.nanoTime();
+        boolean locked;
+        try {
+            locked = lock.tryLock(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PlanBusyException("Interrupted waiting to change the plan of " + email);
+        }
+        long waited = System.nanoTime() - start;
+        waitedNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        if (!locked) {
+            timedOut.increment();
+            log.warn("Timed out after {}ms waiting to change the plan of {}", TimeUnit.NANOSECONDS.toMillis(waited), email);
+            throw new PlanBusyException("Another change to the meal plan of " + email + " is still running");
+        }
+        acquired.increment();
+    }
+
+    private ReentrantLock stripeFor(String email) {
+        int h = email.toLowerCase().hashCode();
+        h ^= h >>> 16;
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    // the exception types a failed @Version check surfaces as, depending on whether it happened at flush or commit
+    private static boolean isConflict(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockingFailureException
+                    || cause instanceof OptimisticLockException
+                    || cause instanceof StaleStateException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+Writes the ingredients a plan priced as one batched upsert instead of a save and flush per ingredient.
+Rows are matched on their unique name: Postgres gets INSERT ... ON CONFLICT (name) DO UPDATE, H2 the equivalent MERGE.
+Either way a refresh keeps the row's created_at and product_url, as the entity's mapping does, and the written ingredients
+get their ids back so grocery rows can point at them.
+ */
+
+package spring.demo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import spring.demo.models.Ingredient;
+import spring.demo.models.Quantity;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Service
+public class PricedIngredientWriter {
+
+    // column, its H2 type for the MERGE source, and whether a refresh overwrites it
+    private record Column(String name, String type, boolean updated) {
+    }
+
+    private static final List<Column> COLUMNS = List.of(
+            new Column("name", "VARCHAR", false),
+            new Column("calories", "DOUBLE PRECISION", true),
+            new Column("protein", "DOUBLE PRECISION", true),
+            new Column("category", "VARCHAR", true),
+            new Column("carbs", "DOUBLE PRECISION", true),
+            new Column("fat", "DOUBLE PRECISION", true),
+            new Column("product_url", "VARCHAR", false),
+            new Column("image_url", "VARCHAR", true),
+            new Column("total_price", "DOUBLE PRECISION", true),
+            new Column("serving_size", "VARCHAR", true),
+            new Column("servings_per_container", "VARCHAR", true),
+            new Column("serving_description", "VARCHAR", true),
+            new Column("package_amount", "DOUBLE PRECISION", true),
+            new Column("package_dimension", "VARCHAR", true),
+            new Column("created_at", "TIMESTAMP", false),
+            new Column("updated_at", "TIMESTAMP", true),
+            new Column("cache_expires_at", "TIMESTAMP", true));
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate named;
+    private final EntityCacheService entityCache;
+    private volatile String upsertSql;
+    private static final Logger log = LoggerFactory.getLogger(PricedIngredientWriter.class);
+
+    public PricedIngredientWriter(DataSource dataSource, EntityCacheService entityCache) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.named = new NamedParameterJdbcTemplate(jdbc);
+        this.entityCache = entityCache;
+    }
+
+    // Upserts the ingredients in one batch and sets their ids, the last one wins for a repeated name.
+    // Joins the caller's transaction, or runs in a short one of its own when a plan is being priced outside any
+    @Transactional
+    public void write(Collection<Ingredient> ingredients) {
+        Map<String, Ingredient> byName = new LinkedHashMap<>();
+        for (Ingredient ingredient : ingredients) {
+            if (ingredient != null && ingredient.getName() != null) {
+                byName.put(ingredient.getName(), ingredient);
+            }
+        }
+        if (byName.isEmpty()) {
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Object[]> rows = new ArrayList<>(byName.size());
+        for (Ingredient ingredient : byName.values()) {
+            ingredient.stampWrite(now);
+            rows.add(values(ingredient));
+        }
+        jdbc.batchUpdate(upsertSql(), rows);
+
+        named.query("SELECT id, name FROM ingredients WHERE name IN (:names)",
+                new MapSqlParameterSource("names", byName.keySet()),
+                (ResultSet rs) -> {
+                    byName.get(rs.getString("name")).setId(rs.getLong("id"));
+                });
+        // Hibernate didn't see these writes, so its cached copies of the rows are stale
+        entityCache.evictIngredients(byName.values().stream().map(Ingredient::getId).filter(Objects::nonNull).toList());
+        log.info("Upserted {} priced ingredients in one batch", rows.size());
+    }
+
+    private static Object[] values(Ingredient ingredient) {
+        Quantity pack = ingredient.getPackageQuantity();
+        return new Object[]{
+                ingredient.getName(), ingredient.getCalories(), ingredient.getProtein(), ingredient.getCategory(),
+                ingredient.getCarbs(), ingredient.getFat(), ingredient.getProductUrl(), ingredient.getImageUrl(),
+                ingredient.getTotalPrice(), ingredient.getServingSize(), ingredient.getServingsPerContainer(),
+                ingredient.getServingDescription(), pack.amount(), pack.dimension() == null ? null : pack.dimension().name(),
+                Timestamp.valueOf(ingredient.getCreatedAt()), Timestamp.valueOf(ingredient.getUpdatedAt()),
+                Timestamp.valueOf(ingredient.getCacheExpiresAt())};
+    }
+
+    private String upsertSql() {
+        String sql = upsertSql;
+        if (sql == null) {
+            String product = jdbc.execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+            sql = "H2".equalsIgnoreCase(product) ? mergeSql() : onConflictSql();
+            upsertSql = sql;
+        }
+        return sql;
+    }
+
+    private static String onConflictSql() {
+        return "INSERT INTO ingredients (" + join(c -> c.name()) + ") VALUES (" + join(c -> "?") + ") " +
+                "ON CONFLICT (name) DO UPDATE SET " +
+                COLUMNS.stream().filter(Column::updated).map(c -> c.name() + " = EXCLUDED." + c.name())
+                        .collect(Collectors.joining(", "));
+    }
+
+    private static String mergeSql() {
+        return "MERGE INTO ingredients t USING (VALUES (" + join(c -> "CAST(? AS " + c.type() + ")") + ")) " +
+                "s(" + join(c -> c.name()) + ") ON t.name = s.name " +
+                "WHEN MATCHED THEN UPDATE SET " +
+                COLUMNS.stream().filter(Column::updated).map(c -> c.name() + " = s." + c.name())
+                        .collect(Collectors.joining(", ")) + " " +
+                "WHEN NOT MATCHED THEN INSERT (" + join(c -> c.name()) + ") VALUES (" + join(c -> "s." + c.name()) + ")";
+    }
+
+    private static String join(Function<Column, String> part) {
+        return COLUMNS.stream().map(part).collect(Collectors.joining(", "));
+    }
+}
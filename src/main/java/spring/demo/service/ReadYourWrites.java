@@ -0,0 +1,143 @@
+/*
+Decides whether a read-only transaction may use the replica. A user who wrote in the last few seconds reads from the primary
+until the replica has had time to catch up, so they always see their own change; everyone else reads from the replica.
+The user is the one set by asUser/readOnly, or else the authenticated user of the request.
+ */
+
+package spring.demo.service;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import spring.demo.models.PlanChangedEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+@Service
+public class ReadYourWrites {
+
+    // what GET /api/metrics/datasource-routing reports
+    public record Stats(long replicaReads, long primaryReads, long writes, int recentWriters, long windowMs) {
+    }
+
+    private static final ThreadLocal<String> USER = new ThreadLocal<>();
+    // bound to a write transaction once it has a commit hook, so it only gets one
+    private static final Object WRITE_HOOK = new Object();
+
+    private final long windowMs;
+    // the transaction manager needs the datasource, which needs this, so it is looked up on first use
+    private final ObjectProvider<PlatformTransactionManager> transactionManager;
+    private volatile TransactionTemplate readOnly;
+
+    private final Map<String, Long> lastWrite = new ConcurrentHashMap<>();
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    public ReadYourWrites(@Value("${datasource.replica.read-your-writes-ms:5000}") long windowMs,
+                          ObjectProvider<PlatformTransactionManager> transactionManager) {
+        this.windowMs = windowMs;
+        this.transactionManager = transactionManager;
+    }
+
+    // Runs reads for a user in a read-only transaction, routed to the replica unless they wrote recently.
+    // For work handed to other threads, which don't have the request's authentication
+    public <T> T readOnly(String email, Supplier<T> reads) {
+        return asUser(email, () -> readOnlyTemplate().execute(status -> reads.get()));
+    }
+
+    public <T> T asUser(String email, Supplier<T> work) {
+        String previous = USER.get();
+        USER.set(email);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) USER.remove();
+            else USER.set(previous);
+        }
+    }
+
+    // Called by the routing datasource when a read-only transaction first needs a connection
+    public boolean mustReadPrimary() {
+        String user = currentUser();
+        Long wrote = user == null ? null : lastWrite.get(user);
+        if (wrote != null && System.currentTimeMillis() - wrote < windowMs) {
+            primaryReads.increment();
+            return true;
+        }
+        if (wrote != null) {
+            lastWrite.remove(user, wrote);
+        }
+        replicaReads.increment();
+        return false;
+    }
+
+    // Called by the routing datasource when a write transaction first needs a connection, the window starts at commit
+    public void onWrite() {
+        String user = currentUser();
+        if (user == null || !TransactionSynchronizationManager.isSynchronizationActive()
+                || TransactionSynchronizationManager.hasResource(WRITE_HOOK)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(WRITE_HOOK, user);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(WRITE_HOOK);
+                if (status == STATUS_COMMITTED) {
+                    recordWrite(user);
+                }
+            }
+        });
+    }
+
+    // Plan jobs write on their own threads without a request user, the event names them
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPlanChanged(PlanChangedEvent event) {
+        recordWrite(event.email());
+    }
+
+    public void recordWrite(String email) {
+        writes.increment();
+        lastWrite.put(email, System.currentTimeMillis());
+    }
+
+    public Stats stats() {
+        long now = System.currentTimeMillis();
+        lastWrite.values().removeIf(wrote -> now - wrote >= windowMs);
+        return new Stats(replicaReads.sum(), primaryReads.sum(), writes.sum(), lastWrite.size(), windowMs);
+    }
+
+    private String currentUser() {
+        String user = USER.get();
+        if (user != null) {
+            return user;
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated() || authentication instanceof AnonymousAuthenticationToken) {
+            return null;
+        }
+        return authentication.getName();
+    }
+
+    private TransactionTemplate readOnlyTemplate() {
+        TransactionTemplate template = readOnly;
+        if (template == null) {
+            template = new TransactionTemplate(transactionManager.getObject());
+            template.setReadOnly(true);
+            readOnly = template;
+        }
+        return template;
+    }
+}
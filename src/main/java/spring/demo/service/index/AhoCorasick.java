@@ -0,0 +1,174 @@
+/*
+Compiled multi-pattern matcher (Aho-Corasick), used to classify ingredient names against many terms in a single pass.
+Patterns are case-folded at compile time and text is case-folded while scanning, so callers never lowercase strings.
+ */
+
+package spring.demo.service.index;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+public final class AhoCorasick {
+
+    private final String[] patterns;
+    private final boolean wholeWords;
+
+    // char -> alphabet symbol, symbol 0 is "any char not used by a pattern"
+    private final int[] ascii = new int[128];
+    private final Map<Character, Integer> extended = new HashMap<>();
+    private final int alphabet;
+
+    // DFA transitions (state * alphabet + symbol) and the pattern ids accepted at each state
+    private final int[] delta;
+    private final int[][] outputs;
+
+    private AhoCorasick(List<String> patterns, boolean wholeWords) {
+        this.patterns = patterns.toArray(new String[0]);
+        this.wholeWords = wholeWords;
+
+        int symbols = 1;
+        for (String p : this.patterns) {
+            for (int i = 0; i < p.length(); i++) {
+                char c = p.charAt(i);
+                if (c < 128) {
+                    if (ascii[c] == 0) ascii[c] = symbols++;
+                } else if (!extended.containsKey(c)) {
+                    extended.put(c, symbols++);
+                }
+            }
+        }
+        this.alphabet = symbols;
+
+        // Build the trie
+        List<int[]> trie = new ArrayList<>();
+        List<List<Integer>> out = new ArrayList<>();
+        trie.add(newRow());
+        out.add(new ArrayList<>());
+        for (int id = 0; id < this.patterns.length; id++) {
+            int state = 0;
+            String p = this.patterns[id];
+            for (int i = 0; i < p.length(); i++) {
+                int sym = symbol(p.charAt(i));
+                if (trie.get(state)[sym] == -1) {
+                    trie.get(state)[sym] = trie.size();
+                    trie.add(newRow());
+                    out.add(new ArrayList<>());
+                }
+                state = trie.get(state)[sym];
+            }
+            out.get(state).add(id);
+        }
+
+        // Breadth first: resolve failure links straight into the transition table
+        int states = trie.size();
+        int[] fail = new int[states];
+        this.delta = new int[states * alphabet];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int sym = 0; sym < alphabet; sym++) {
+            int next = trie.get(0)[sym];
+            if (next == -1) {
+                delta[sym] = 0;
+            } else {
+                delta[sym] = next;
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            out.get(state).addAll(out.get(fail[state]));
+            for (int sym = 0; sym < alphabet; sym++) {
+                int next = trie.get(state)[sym];
+                if (next == -1) {
+                    delta[state * alphabet + sym] = delta[fail[state] * alphabet + sym];
+                } else {
+                    delta[state * alphabet + sym] = next;
+                    fail[next] = delta[fail[state] * alphabet + sym];
+                    queue.add(next);
+                }
+            }
+        }
+
+        this.outputs = new int[states][];
+        for (int s = 0; s < states; s++) {
+            outputs[s] = out.get(s).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    // Compiles the given terms, matching anywhere inside the scanned text
+    public static AhoCorasick compile(Collection<String> terms) {
+        return new AhoCorasick(normalize(terms), false);
+    }
+
+    // Compiles the given terms, only reporting matches that are whole words of the scanned text
+    public static AhoCorasick compileWords(Collection<String> terms) {
+        return new AhoCorasick(normalize(terms), true);
+    }
+
+    private static List<String> normalize(Collection<String> terms) {
+        List<String> list = new ArrayList<>();
+        for (String term : terms) {
+            if (term == null) continue;
+            String t = term.trim().toLowerCase();
+            if (!t.isEmpty()) list.add(t);
+        }
+        return list;
+    }
+
+    private int[] newRow() {
+        int[] row = new int[alphabet];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private int symbol(char c) {
+        c = Character.toLowerCase(c);
+        if (c < 128) return ascii[c];
+        return extended.getOrDefault(c, 0);
+    }
+
+    public int size() {
+        return patterns.length;
+    }
+
+    public String pattern(int id) {
+        return patterns[id];
+    }
+
+    // Reports the id of every pattern occurrence in text
+    public void scan(CharSequence text, IntConsumer onMatch) {
+        if (text == null || patterns.length == 0) return;
+        int state = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = delta[state * alphabet + symbol(text.charAt(i))];
+            for (int id : outputs[state]) {
+                if (!wholeWords || isWord(text, i - patterns[id].length() + 1, i)) {
+                    onMatch.accept(id);
+                }
+            }
+        }
+    }
+
+    // True if any pattern occurs in text, stopping at the first hit
+    public boolean matchesAny(CharSequence text) {
+        if (text == null || patterns.length == 0) return false;
+        int state = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = delta[state * alphabet + symbol(text.charAt(i))];
+            for (int id : outputs[state]) {
+                if (!wholeWords || isWord(text, i - patterns[id].length() + 1, i)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWord(CharSequence text, int start, int end) {
+        boolean leftOk = start == 0 || !Character.isLetter(text.charAt(start - 1));
+        boolean rightOk = end == text.length() - 1 || !Character.isLetter(text.charAt(end + 1));
+        return leftOk && rightOk;
+    }
+}
@@ -0,0 +1,50 @@
+package spring.demo.service.index; // allergen classes the recipe index keeps a bitset for
+
+import java.util.List;
+
+public enum Allergen {
+
+    GLUTEN(List.of("gluten", "wheat"),
+            List.of("flour", "plain flour", "bread", "breadcrumbs", "pasta", "spaghetti", "noodles", "wheat",
+                    "barley", "rye", "couscous", "tortilla", "tortillas", "pastry", "semolina", "soy sauce",
+                    "lasagne sheets", "macaroni", "penne", "fettuccine", "linguine", "bulgur")),
+    DAIRY(List.of("dairy", "milk", "lactose"),
+            List.of("milk", "cheese", "butter", "cream", "double cream", "sour cream", "yogurt", "yoghurt", "ghee",
+                    "parmesan", "mozzarella", "cheddar", "feta", "paneer", "ricotta", "mascarpone",
+                    "creme fraiche", "buttermilk", "custard", "gruyere")),
+    EGG(List.of("egg", "eggs"),
+            List.of("egg", "eggs", "egg yolks", "egg white", "egg whites", "mayonnaise")),
+    TREE_NUT(List.of("nuts", "nut", "tree nuts", "tree nut"),
+            List.of("almond", "almonds", "walnut", "walnuts", "cashew", "cashews", "pecan", "pecans",
+                    "pistachio", "pistachios", "hazelnut", "hazelnuts", "macadamia", "pine nuts")),
+    PEANUT(List.of("peanut", "peanuts", "nuts", "nut"),
+            List.of("peanut", "peanuts", "peanut butter", "peanut oil")),
+    SOY(List.of("soy", "soya"),
+            List.of("soy", "soya", "soy sauce", "tofu", "edamame", "miso", "tempeh")),
+    FISH(List.of("fish", "seafood"),
+            List.of("fish", "salmon", "tuna", "cod", "anchovy", "anchovies", "sardines", "haddock", "mackerel",
+                    "trout", "tilapia", "fish sauce", "white fish")),
+    SHELLFISH(List.of("shellfish", "seafood", "crustacean"),
+            List.of("prawn", "prawns", "shrimp", "crab", "lobster", "mussels", "clams", "oysters", "scallops",
+                    "squid")),
+    SESAME(List.of("sesame"),
+            List.of("sesame", "sesame seed", "sesame oil", "tahini"));
+
+    // words a user may type in their allergy preference to select this class
+    private final List<String> aliases;
+    // ingredient terms that put a recipe in this class
+    private final List<String> terms;
+
+    Allergen(List<String> aliases, List<String> terms) {
+        this.aliases = aliases;
+        this.terms = terms;
+    }
+
+    public List<String> getAliases() {
+        return aliases;
+    }
+
+    public List<String> getTerms() {
+        return terms;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+Bitmap index of recipe ordinals per allergen class and diet flag, built when recipes are written.
+Excluding a user's allergies becomes a few bitset operations instead of string matching every recipe's ingredients.
+ */
+
+package spring.demo.service.index;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import spring.demo.models.Recipe;
+import spring.demo.models.RecipeWrittenEvent;
+import spring.demo.models.UserPreference;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+@Component
+public class AllergenIndex {
+
+    // categories that can never be part of a vegan meal, regardless of ingredients
+    private static final Set<String> ANIMAL_CATEGORIES = Set.of(
+            "beef", "chicken", "pork", "lamb", "goat", "seafood", "duck", "veal");
+
+    private static final List<String> ANIMAL_TERMS = List.of(
+            "chicken", "beef", "pork", "lamb", "mutton", "bacon", "ham", "sausage", "sausages", "turkey",
+            "duck", "goat", "veal", "mince", "minced beef", "chorizo", "prosciutto", "pancetta", "salami",
+            "gelatine", "gelatin", "honey", "lard", "suet", "stock", "chicken stock", "beef stock");
+
+    // plant-based products whose names contain a dairy or animal term
+    private static final List<String> PLANT_BASED_TERMS = List.of(
+            "coconut milk", "coconut cream", "almond milk", "oat milk", "soy milk", "rice milk",
+            "peanut butter", "almond butter", "cocoa butter", "vegan butter", "vegetable stock",
+            "vegetable broth", "mushroom stock");
+
+    private static final Allergen[] CLASSES = Allergen.values();
+
+    private final RecipeCatalog catalog;
+
+    // One matcher over every class term; pattern id -> class bits it sets and clears (bit CLASSES.length is "animal")
+    private final AhoCorasick classifier;
+    private final long[] patternSets;
+    private final long[] patternClears;
+    private final int animalBit = CLASSES.length;
+
+    private final BitSet[] allergenBits = new BitSet[CLASSES.length];
+    private final BitSet nonVegan = new BitSet();
+    private final BitSet indexed = new BitSet();
+    // ingredient name -> recipes using it, so custom allergy terms only scan the ingredient vocabulary
+    private final Map<String, BitSet> byIngredient = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public AllergenIndex(RecipeCatalog catalog) {
+        this.catalog = catalog;
+
+        List<String> terms = new ArrayList<>();
+        List<Long> sets = new ArrayList<>();
+        List<Long> clears = new ArrayList<>();
+        for (Allergen allergen : CLASSES) {
+            allergenBits[allergen.ordinal()] = new BitSet();
+            for (String term : allergen.getTerms()) {
+                terms.add(term);
+                sets.add(1L << allergen.ordinal());
+                clears.add(0L);
+            }
+        }
+        for (String term : ANIMAL_TERMS) {
+            terms.add(term);
+            sets.add(1L << animalBit);
+            clears.add(0L);
+        }
+        for (String term : PLANT_BASED_TERMS) {
+            terms.add(term);
+            sets.add(0L);
+            clears.add((1L << Allergen.DAIRY.ordinal()) | (1L << animalBit));
+        }
+        this.classifier = AhoCorasick.compileWords(terms);
+        this.patternSets = sets.stream().mapToLong(Long::longValue).toArray();
+        this.patternClears = clears.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRecipesWritten(RecipeWrittenEvent event) {
+        for (Recipe recipe : event.recipes()) {
+            index(recipe);
+        }
+    }
+
+    // Classifies a recipe's ingredients once and sets its bit in every matching class
+    public int index(Recipe recipe) {
+        int ordinal = catalog.register(recipe.getId());
+
+        long classMask = 0;
+        Set<String> names = new HashSet<>();
+        if (recipe.getIngredients() != null) {
+            for (String ingredient : recipe.getIngredients().keySet()) {
+                if (ingredient == null) continue;
+                String name = ingredient.trim().toLowerCase();
+                if (name.isEmpty()) continue;
+                names.add(name);
+                long[] mask = {0, 0};
+                classifier.scan(name, id -> {
+                    mask[0] |= patternSets[id];
+                    mask[1] |= patternClears[id];
+                });
+                classMask |= mask[0] & ~mask[1];
+            }
+        }
+        String category = recipe.getCategory() == null ? "" : recipe.getCategory().trim().toLowerCase();
+
+        lock.writeLock().lock();
+        try {
+            for (Allergen allergen : CLASSES) {
+                allergenBits[allergen.ordinal()].set(ordinal, (classMask & (1L << allergen.ordinal())) != 0);
+            }
+            boolean animal = (classMask & (1L << animalBit)) != 0
+                    || (classMask & (1L << Allergen.DAIRY.ordinal())) != 0
+                    || (classMask & (1L << Allergen.EGG.ordinal())) != 0
+                    || (classMask & (1L << Allergen.FISH.ordinal())) != 0
+                    || (classMask & (1L << Allergen.SHELLFISH.ordinal())) != 0
+                    || ANIMAL_CATEGORIES.contains(category);
+            nonVegan.set(ordinal, animal);
+
+            // a re-indexed recipe may have dropped ingredients since it was last seen
+            if (indexed.get(ordinal)) {
+                for (BitSet recipes : byIngredient.values()) {
+                    recipes.clear(ordinal);
+                }
+            }
+            for (String name : names) {
+                byIngredient.computeIfAbsent(name, k -> new BitSet()).set(ordinal);
+            }
+            indexed.set(ordinal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return ordinal;
+    }
+
+    // Returns the ordinals a user must never be served, or an empty set if they have no restrictions
+    public BitSet exclusions(UserPreference pref) {
+        BitSet excluded = new BitSet();
+        if (pref == null) return excluded;
+
+        boolean vegan = Boolean.TRUE.equals(pref.isVegan());
+        EnumSet<Allergen> classes = EnumSet.noneOf(Allergen.class);
+        List<String> custom = new ArrayList<>();
+        parseAllergies(pref.getAllergies(), classes, custom);
+
+        if (!vegan && classes.isEmpty() && custom.isEmpty()) return excluded;
+
+        lock.readLock().lock();
+        try {
+            if (vegan) excluded.or(nonVegan);
+            for (Allergen allergen : classes) {
+                excluded.or(allergenBits[allergen.ordinal()]);
+            }
+            if (!custom.isEmpty()) {
+                AhoCorasick matcher = AhoCorasick.compile(custom);
+                for (Map.Entry<String, BitSet> entry : byIngredient.entrySet()) {
+                    if (matcher.matchesAny(entry.getKey())) {
+                        excluded.or(entry.getValue());
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return excluded;
+    }
+
+    // Indexes any recipe the catalog has not seen yet, so exclusions computed afterwards cover it
+    public void indexMissing(Collection<Recipe> recipes) {
+        for (Recipe recipe : recipes) {
+            if (!isIndexed(catalog.ordinal(recipe.getId()))) {
+                index(recipe);
+            }
+        }
+    }
+
+    // True if the recipe is not part of the given exclusions
+    public boolean permits(BitSet exclusions, Recipe recipe) {
+        if (exclusions.isEmpty()) return true;
+        int ordinal = catalog.ordinal(recipe.getId());
+        return ordinal < 0 || !exclusions.get(ordinal);
+    }
+
+    // Same as permits for a recipe only known by id, as the catalog indexes hand them out
+    public boolean excludes(BitSet exclusions, long id) {
+        if (exclusions.isEmpty()) return false;
+        int ordinal = catalog.ordinal(id);
+        return ordinal >= 0 && exclusions.get(ordinal);
+    }
+
+    private boolean isIndexed(int ordinal) {
+        if (ordinal < 0) return false;
+        lock.readLock().lock();
+        try {
+            return indexed.get(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Splits the free-text allergy preference into known classes and custom terms
+    static void parseAllergies(String allergies, Set<Allergen> classes, List<String> custom) {
+        if (allergies == null || allergies.isBlank()) return;
+
+        for (String token : allergies.toLowerCase().split("[,;/]|\\band\\b")) {
+            String term = token.trim();
+            if (term.isEmpty() || term.equals("none")) continue;
+
+            boolean known = false;
+            for (Allergen allergen : CLASSES) {
+                if (allergen.getAliases().contains(term)) {
+                    classes.add(allergen);
+                    known = true;
+                }
+            }
+            if (!known) custom.add(term);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+Immutable calorie-sorted view over a set of recipes: a sorted int array of calories with the recipe id at the same position.
+Lookups binary search the target and walk outwards, so "closest to N calories" never scans the whole set.
+ */
+
+package spring.demo.service.index;
+
+import spring.demo.models.Recipe;
+
+import java.util.*;
+import java.util.function.LongPredicate;
+
+public final class CalorieIndex {
+
+    public static final CalorieIndex EMPTY = new CalorieIndex(new int[0], new long[0]);
+
+    private final int[] calories;
+    private final long[] ids;
+
+    private CalorieIndex(int[] calories, long[] ids) {
+        this.calories = calories;
+        this.ids = ids;
+    }
+
+    public static CalorieIndex of(Collection<Recipe> recipes) {
+        Map<Long, Integer> byId = new HashMap<>();
+        for (Recipe recipe : recipes) {
+            if (recipe != null) byId.putIfAbsent(recipe.getId(), recipe.getCalories());
+        }
+        return of(byId);
+    }
+
+    // Builds the index from recipe id -> calories
+    public static CalorieIndex of(Map<Long, Integer> caloriesById) {
+        int n = caloriesById.size();
+        long[] packed = new long[n];
+        int i = 0;
+        for (Map.Entry<Long, Integer> entry : caloriesById.entrySet()) {
+            // sort on calories, ties broken by position in the id list below
+            packed[i] = ((long) entry.getValue() << 32) | (i & 0xffffffffL);
+            i++;
+        }
+        long[] idsByPosition = caloriesById.keySet().stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(packed);
+
+        int[] calories = new int[n];
+        long[] ids = new long[n];
+        for (int k = 0; k < n; k++) {
+            calories[k] = (int) (packed[k] >> 32);
+            ids[k] = idsByPosition[(int) packed[k]];
+        }
+        return new CalorieIndex(calories, ids);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    // First position whose calories are >= target
+    private int lowerBound(int target) {
+        int lo = 0, hi = calories.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (calories[mid] < target) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Up to limit ids within radius of target, closest first, skipping any id the predicate rejects
+    public List<Long> closest(int target, int radius, int limit, LongPredicate skip) {
+        List<Long> result = new ArrayList<>();
+        if (limit <= 0) return result;
+
+        int right = lowerBound(target);
+        int left = right - 1;
+        while (result.size() < limit && (left >= 0 || right < calories.length)) {
+            long leftGap = left >= 0 ? (long) target - calories[left] : Long.MAX_VALUE;
+            long rightGap = right < calories.length ? (long) calories[right] - target : Long.MAX_VALUE;
+
+            int pos;
+            long gap;
+            if (leftGap <= rightGap) {
+                pos = left--;
+                gap = leftGap;
+            } else {
+                pos = right++;
+                gap = rightGap;
+            }
+            if (gap > radius) break;
+            if (!skip.test(ids[pos])) result.add(ids[pos]);
+        }
+        return result;
+    }
+
+    // The id whose calories are nearest to target, or -1 if every id is skipped
+    public long nearest(int target, LongPredicate skip) {
+        List<Long> match = closest(target, Integer.MAX_VALUE, 1, skip);
+        return match.isEmpty() ? -1 : match.get(0);
+    }
+}
@@ -0,0 +1,53 @@
+package spring.demo.service.index; // calorie-sorted index over the whole recipe catalog, rebuilt on the first lookup after recipes are written, so a burst of writes costs one sort
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import spring.demo.models.Recipe;
+import spring.demo.models.RecipeWrittenEvent;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+@Component
+public class CatalogCalorieIndex {
+
+    private final Map<Long, Integer> caloriesById = new HashMap<>();
+    private volatile CalorieIndex snapshot = CalorieIndex.EMPTY;
+    private volatile boolean stale;
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onRecipesWritten(RecipeWrittenEvent event) {
+        boolean changed = false;
+        for (Recipe recipe : event.recipes()) {
+            Integer previous = caloriesById.put(recipe.getId(), recipe.getCalories());
+            changed |= previous == null || previous != recipe.getCalories();
+        }
+        if (changed) {
+            stale = true;
+        }
+    }
+
+    public List<Long> closest(int target, int radius, int limit, LongPredicate skip) {
+        return current().closest(target, radius, limit, skip);
+    }
+
+    public long nearest(int target, LongPredicate skip) {
+        return current().nearest(target, skip);
+    }
+
+    private CalorieIndex current() {
+        if (stale) {
+            rebuild();
+        }
+        return snapshot;
+    }
+
+    private synchronized void rebuild() {
+        if (stale) {
+            stale = false;
+            snapshot = CalorieIndex.of(caloriesById);
+        }
+    }
+}
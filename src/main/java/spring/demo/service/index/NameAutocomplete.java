@@ -0,0 +1,321 @@
+/*
+Type-ahead over recipe and ingredient names. Names are case- and accent-folded into a radix tree that is keyed from every word,
+so "masa" finds "Chicken Tikka Masala", and every node keeps its best few names so a lookup costs the length of the prefix.
+Recipes rank by how many plans have used them, ingredients by how many recipes use them. A renamed recipe or changed ingredient
+list marks its tree stale and the next lookup rebuilds it, so a burst of writes costs one rebuild. Plan counts are reloaded
+periodically and rebuild the recipe tree on the spot. Lookups never touch the database.
+ */
+
+package spring.demo.service.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import spring.demo.models.Recipe;
+import spring.demo.models.RecipeUses;
+import spring.demo.models.RecipeWrittenEvent;
+import spring.demo.models.Suggestion;
+import spring.demo.models.repository.RecipeRepository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+@Component
+public class NameAutocomplete {
+
+    // what GET /api/autocomplete returns
+    public record Suggestions(List<Suggestion> recipes, List<Suggestion> ingredients) {
+    }
+
+    // how many completions each tree node keeps, and so the most one lookup can return
+    public static final int MAX_SUGGESTIONS = 10;
+
+    private static final Pattern SPACES = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    private final RecipeRepository recipeRepository;
+    private static final Logger log = LoggerFactory.getLogger(NameAutocomplete.class);
+
+    // the catalog as last written with names already folded, guarded by this
+    private final Map<Long, String> recipeNames = new HashMap<>();
+    private final Map<Long, String> recipeKeys = new HashMap<>();
+    private final Map<Long, Set<String>> ingredientsByRecipe = new HashMap<>();
+    private final Map<String, Integer> ingredientUses = new HashMap<>();
+    private final Map<String, String> ingredientNames = new HashMap<>();
+    private Map<Long, Long> recipeUses = Map.of();
+
+    // folded recipe name -> id, for exact lookups by name
+    private final Map<String, Long> recipeIds = new ConcurrentHashMap<>();
+
+    private volatile PrefixTree recipes = PrefixTree.EMPTY;
+    private volatile PrefixTree ingredients = PrefixTree.EMPTY;
+    // price and nutrition updates rewrite recipes without touching their names, only a changed name or ingredient set rebuilds
+    private volatile boolean recipesStale;
+    private volatile boolean ingredientsStale;
+
+    public NameAutocomplete(RecipeRepository recipeRepository) {
+        this.recipeRepository = recipeRepository;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onRecipesWritten(RecipeWrittenEvent event) {
+        for (Recipe recipe : event.recipes()) {
+            String name = recipe.getName() == null || recipe.getName().isBlank() ? null : recipe.getName().trim();
+            if (!Objects.equals(name, recipeNames.get(recipe.getId()))) {
+                String previous = recipeKeys.remove(recipe.getId());
+                recipeNames.remove(recipe.getId());
+                if (previous != null) {
+                    recipeIds.remove(previous, recipe.getId());
+                }
+                if (name != null) {
+                    String folded = key(name);
+                    recipeNames.put(recipe.getId(), name);
+                    recipeKeys.put(recipe.getId(), folded);
+                    recipeIds.put(folded, recipe.getId());
+                }
+                recipesStale = true;
+            }
+
+            Set<String> names = new HashSet<>();
+            if (recipe.getIngredients() != null) {
+                for (String ingredient : recipe.getIngredients().keySet()) {
+                    if (ingredient == null || ingredient.isBlank()) continue;
+                    String folded = key(ingredient);
+                    names.add(folded);
+                    ingredientNames.putIfAbsent(folded, ingredient.trim());
+                }
+            }
+            Set<String> before = ingredientsByRecipe.put(recipe.getId(), names);
+            if (names.equals(before)) {
+                continue;
+            }
+            ingredientsStale = true;
+            if (before != null) {
+                for (String ingredient : before) {
+                    ingredientUses.merge(ingredient, -1, (a, b) -> a + b == 0 ? null : a + b);
+                }
+            }
+            for (String ingredient : names) {
+                ingredientUses.merge(ingredient, 1, Integer::sum);
+            }
+        }
+    }
+
+    // Reloads how often each recipe has been planned, so popular recipes complete first
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${autocomplete.popularity-refresh-ms:300000}",
+            initialDelayString = "${autocomplete.popularity-refresh-ms:300000}")
+    public void refreshPopularity() {
+        try {
+            Map<Long, Long> uses = new HashMap<>();
+            for (RecipeUses row : recipeRepository.countPlanUses()) {
+                uses.merge(row.recipeId(), row.uses(), Long::sum);
+            }
+            for (RecipeUses row : recipeRepository.countArchivedUses()) {
+                uses.merge(row.recipeId(), row.uses(), Long::sum);
+            }
+            updatePopularity(uses);
+        } catch (RuntimeException e) {
+            log.warn("Could not reload recipe popularity for autocomplete", e);
+        }
+    }
+
+    public synchronized void updatePopularity(Map<Long, Long> uses) {
+        if (!uses.equals(recipeUses)) {
+            recipeUses = Map.copyOf(uses);
+            recipesStale = true;
+            // rebuilt here on the refresh's thread rather than by the next lookup
+            rebuild();
+        }
+    }
+
+    // Up to limit names of each kind that have a word starting with the prefix, most popular first
+    public Suggestions complete(String prefix, int limit) {
+        String query = SPACES.matcher(RecipeSearchIndex.fold(prefix)).replaceAll(" ").stripLeading();
+        int k = Math.min(limit, MAX_SUGGESTIONS);
+        if (query.isEmpty() || k <= 0) {
+            return new Suggestions(List.of(), List.of());
+        }
+        if (recipesStale || ingredientsStale) {
+            rebuild();
+        }
+        return new Suggestions(recipes.complete(query, k), ingredients.complete(query, k));
+    }
+
+    // The id of the recipe with this name, ignoring case and accents
+    public Optional<Long> recipeId(String name) {
+        return name == null ? Optional.empty() : Optional.ofNullable(recipeIds.get(key(name)));
+    }
+
+    private synchronized void rebuild() {
+        if (recipesStale) {
+            recipesStale = false;
+            List<PrefixTree.Named> entries = new ArrayList<>(recipeNames.size());
+            recipeNames.forEach((id, name) -> entries.add(
+                    new PrefixTree.Named(recipeKeys.get(id), new Suggestion(name, id, recipeUses.getOrDefault(id, 0L)))));
+            recipes = PrefixTree.build(entries);
+        }
+        if (ingredientsStale) {
+            ingredientsStale = false;
+            List<PrefixTree.Named> entries = new ArrayList<>(ingredientUses.size());
+            ingredientUses.forEach((folded, uses) -> entries.add(
+                    new PrefixTree.Named(folded, new Suggestion(ingredientNames.get(folded), null, uses))));
+            ingredients = PrefixTree.build(entries);
+        }
+    }
+
+    // folded with runs of spaces and punctuation collapsed, the form names are keyed and looked up in
+    private static String key(String name) {
+        return SPACES.matcher(RecipeSearchIndex.fold(name)).replaceAll(" ").strip();
+    }
+
+    /*
+    Immutable radix tree over the folded names, with one key per word start of each name. Entries are numbered best first,
+    so a node's best completions are just the smallest entry numbers below it, kept up to MAX_SUGGESTIONS.
+     */
+    static final class PrefixTree {
+
+        static final PrefixTree EMPTY = build(List.of());
+
+        // a suggestion and its folded name
+        record Named(String key, Suggestion suggestion) {
+        }
+
+        private record Key(String text, int entry) {
+        }
+
+        private static final class Node {
+            final String edge;
+            final char[] firsts;
+            final Node[] children;
+            final int[] top;
+
+            Node(String edge, char[] firsts, Node[] children, int[] top) {
+                this.edge = edge;
+                this.firsts = firsts;
+                this.children = children;
+                this.top = top;
+            }
+        }
+
+        private final Suggestion[] entries;
+        private final Node root;
+
+        private PrefixTree(Suggestion[] entries, Node root) {
+            this.entries = entries;
+            this.root = root;
+        }
+
+        static PrefixTree build(List<Named> named) {
+            Named[] sorted = named.stream()
+                    .sorted(Comparator.<Named>comparingLong(n -> n.suggestion().popularity()).reversed()
+                            .thenComparingInt(n -> n.suggestion().name().length())
+                            .thenComparing(n -> n.suggestion().name()))
+                    .toArray(Named[]::new);
+            Suggestion[] entries = new Suggestion[sorted.length];
+
+            List<Key> keys = new ArrayList<>();
+            for (int i = 0; i < sorted.length; i++) {
+                entries[i] = sorted[i].suggestion();
+                String name = sorted[i].key();
+                for (int at = 0; at < name.length(); at++) {
+                    if (at == 0 || name.charAt(at - 1) == ' ') {
+                        keys.add(new Key(name.substring(at), i));
+                    }
+                }
+            }
+            keys.sort(Comparator.comparing(Key::text).thenComparingInt(Key::entry));
+
+            Node root = keys.isEmpty()
+                    ? new Node("", new char[0], new Node[0], new int[0])
+                    : node(keys, 0, keys.size(), 0);
+            return new PrefixTree(entries, root);
+        }
+
+        // Keys [lo, hi) share their first depth chars. The node's edge runs on to their longest common prefix,
+        // keys that end there complete at this node and the rest branch on their next char
+        private static Node node(List<Key> keys, int lo, int hi, int depth) {
+            String first = keys.get(lo).text();
+            String last = keys.get(hi - 1).text();
+            int common = depth;
+            int max = Math.min(first.length(), last.length());
+            while (common < max && first.charAt(common) == last.charAt(common)) {
+                common++;
+            }
+
+            int[] best = new int[0];
+            int i = lo;
+            while (i < hi && keys.get(i).text().length() == common) {
+                best = merge(best, new int[]{keys.get(i).entry()});
+                i++;
+            }
+            List<Character> firsts = new ArrayList<>();
+            List<Node> children = new ArrayList<>();
+            while (i < hi) {
+                char c = keys.get(i).text().charAt(common);
+                int j = i;
+                while (j < hi && keys.get(j).text().charAt(common) == c) {
+                    j++;
+                }
+                Node child = node(keys, i, j, common);
+                best = merge(best, child.top);
+                firsts.add(c);
+                children.add(child);
+                i = j;
+            }
+
+            char[] branch = new char[firsts.size()];
+            for (int b = 0; b < branch.length; b++) {
+                branch[b] = firsts.get(b);
+            }
+            return new Node(first.substring(depth, common), branch, children.toArray(Node[]::new), best);
+        }
+
+        // The smallest distinct entries of two ascending lists, at most MAX_SUGGESTIONS of them
+        private static int[] merge(int[] a, int[] b) {
+            int[] out = new int[Math.min(a.length + b.length, MAX_SUGGESTIONS)];
+            int i = 0, j = 0, n = 0;
+            while (n < out.length && (i < a.length || j < b.length)) {
+                int next = j == b.length || (i < a.length && a[i] <= b[j]) ? a[i++] : b[j++];
+                if (n == 0 || out[n - 1] != next) {
+                    out[n++] = next;
+                }
+            }
+            return n == out.length ? out : Arrays.copyOf(out, n);
+        }
+
+        List<Suggestion> complete(String prefix, int k) {
+            Node node = root;
+            int at = 0;
+            while (true) {
+                String edge = node.edge;
+                int remaining = prefix.length() - at;
+                if (remaining <= edge.length()) {
+                    return edge.startsWith(prefix.substring(at)) ? top(node, k) : List.of();
+                }
+                if (!prefix.startsWith(edge, at)) {
+                    return List.of();
+                }
+                at += edge.length();
+                int child = Arrays.binarySearch(node.firsts, prefix.charAt(at));
+                if (child < 0) {
+                    return List.of();
+                }
+                node = node.children[child];
+            }
+        }
+
+        private List<Suggestion> top(Node node, int k) {
+            int n = Math.min(k, node.top.length);
+            Suggestion[] result = new Suggestion[n];
+            for (int i = 0; i < n; i++) {
+                result[i] = entries[node.top[i]];
+            }
+            return List.of(result);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+Classifies ingredients as pantry staples (salt, oil, spices...) that never go on a grocery list.
+Staples come from the pantry.staples property plus whatever the user says they already keep at home.
+ */
+
+package spring.demo.service.index;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import spring.demo.models.UserPreference;
+
+import java.util.*;
+
+@Component
+public class PantryStaples {
+
+    private static final int MAX_CACHED_PANTRIES = 256;
+
+    private final List<String> staples;
+    private final Classifier defaults;
+
+    // compiled classifiers per distinct user pantry, most users share a handful of pantries
+    private final Map<String, Classifier> byPantry = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Classifier> eldest) {
+            return size() > MAX_CACHED_PANTRIES;
+        }
+    };
+
+    public PantryStaples(@Value("${pantry.staples:salt,pepper,water,sugar,oil,olive oil,flour,rice,baking powder,"
+            + "soy sauce,vinegar,cumin,butter,parsley,garlic,onion powder,paprika,black pepper,kosher salt,ketchup,"
+            + "sauce,sake,null,honey,paneer,powder,spice}") List<String> staples) {
+        this.staples = List.copyOf(staples);
+        this.defaults = new Classifier(this.staples);
+    }
+
+    // Returns the classifier for this user's pantry, compiling it on first use
+    public Classifier forUser(UserPreference pref) {
+        String pantry = pref == null || pref.getPantry() == null ? "" : pref.getPantry().trim().toLowerCase();
+        if (pantry.isEmpty()) return defaults;
+
+        synchronized (byPantry) {
+            return byPantry.computeIfAbsent(pantry, p -> {
+                List<String> terms = new ArrayList<>(staples);
+                for (String item : p.split("[,;]")) {
+                    if (!item.isBlank()) terms.add(item.trim());
+                }
+                return new Classifier(terms);
+            });
+        }
+    }
+
+    public static final class Classifier {
+
+        private final AhoCorasick matcher;
+        // every substring of every staple, so a short name like "olive" still matches "olive oil"
+        private final Set<String> fragments = new HashSet<>();
+
+        private Classifier(List<String> terms) {
+            this.matcher = AhoCorasick.compile(terms);
+            for (int id = 0; id < matcher.size(); id++) {
+                String term = matcher.pattern(id);
+                for (int start = 0; start < term.length(); start++) {
+                    for (int end = start + 1; end <= term.length(); end++) {
+                        fragments.add(term.substring(start, end));
+                    }
+                }
+            }
+        }
+
+        // True if the name contains a staple or is itself part of one; expects a trimmed, lowercase name
+        public boolean isStaple(String lowerName) {
+            return fragments.contains(lowerName) || matcher.matchesAny(lowerName);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+Assigns every recipe a dense ordinal so the in-memory indexes can use arrays and bitsets instead of maps of entities.
+Ordinals are never reused, so a bitset built earlier stays valid as the catalog grows.
+ */
+
+package spring.demo.service.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import spring.demo.models.Recipe;
+import spring.demo.models.RecipeWrittenEvent;
+import spring.demo.models.repository.RecipeRepository;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class RecipeCatalog {
+
+    private final RecipeRepository recipeRepository;
+    private final ApplicationEventPublisher publisher;
+    private static final Logger log = LoggerFactory.getLogger(RecipeCatalog.class);
+
+    private final Map<Long, Integer> ordinals = new ConcurrentHashMap<>();
+    private volatile long[] ids = new long[256];
+    private volatile int size;
+
+    public RecipeCatalog(RecipeRepository recipeRepository, ApplicationEventPublisher publisher) {
+        this.recipeRepository = recipeRepository;
+        this.publisher = publisher;
+    }
+
+    // Loads the whole catalog once the app is up, so every index starts from the same snapshot.
+    // Runs ahead of the other startup listeners, some of them already read the indexes
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void load() {
+        List<Recipe> recipes = recipeRepository.findAll();
+        log.info("Indexing {} recipes", recipes.size());
+        publisher.publishEvent(new RecipeWrittenEvent(recipes));
+    }
+
+    // Returns the ordinal for a recipe id, or -1 if the recipe was never indexed
+    public int ordinal(long id) {
+        Integer ordinal = ordinals.get(id);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    // Returns the ordinal for a recipe id, assigning the next free one if needed
+    public int register(long id) {
+        Integer existing = ordinals.get(id);
+        if (existing != null) return existing;
+
+        synchronized (this) {
+            existing = ordinals.get(id);
+            if (existing != null) return existing;
+
+            int ordinal = size;
+            if (ordinal == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+            ids[ordinal] = id;
+            ordinals.put(id, ordinal);
+            size = ordinal + 1;
+            return ordinal;
+        }
+    }
+
+    public long idAt(int ordinal) {
+        return ids[ordinal];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+Draws random recipes from a dense in-memory array of recipe ids instead of ORDER BY RANDOM(), which sorts the whole table per call.
+The array is rebuilt as recipes are written, a draw costs O(k) and the caller loads the chosen rows by primary key.
+Ids can be skipped (for example the user's current plan) and draws can be spread evenly over the recipe categories.
+ */
+
+package spring.demo.service.index;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import spring.demo.models.Recipe;
+import spring.demo.models.RecipeWrittenEvent;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongPredicate;
+
+@Component
+public class RecipeSampler {
+
+    // draws per wanted id before a sample falls back to scanning, only reached when most of the catalog is skipped
+    private static final int ATTEMPTS_PER_ID = 8;
+
+    private record Snapshot(long[] ids, long[][] byCategory) {
+        static final Snapshot EMPTY = new Snapshot(new long[0], new long[0][]);
+    }
+
+    private final Map<Long, String> categoryById = new HashMap<>();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onRecipesWritten(RecipeWrittenEvent event) {
+        boolean changed = false;
+        for (Recipe recipe : event.recipes()) {
+            String category = recipe.getCategory() == null ? "" : recipe.getCategory().trim().toLowerCase();
+            changed |= !category.equals(categoryById.put(recipe.getId(), category));
+        }
+        if (changed) {
+            snapshot = build(categoryById);
+        }
+    }
+
+    public int size() {
+        return snapshot.ids().length;
+    }
+
+    // Up to k distinct ids chosen uniformly from the catalog, skipping those the predicate matches
+    public List<Long> sample(int k, LongPredicate skip) {
+        return draw(snapshot.ids(), k, skip, new LinkedHashSet<>());
+    }
+
+    // Up to k distinct ids taken round-robin from the categories in random order, so one large category can't crowd out the rest
+    public List<Long> sampleBalanced(int k, LongPredicate skip) {
+        long[][] categories = snapshot.byCategory();
+        if (k <= 0 || categories.length == 0) {
+            return List.of();
+        }
+
+        int[] order = shuffledOrder(categories.length);
+        Set<Long> chosen = new LinkedHashSet<>();
+        boolean progress = true;
+        while (chosen.size() < k && progress) {
+            progress = false;
+            for (int c = 0; c < order.length && chosen.size() < k; c++) {
+                int before = chosen.size();
+                draw(categories[order[c]], before + 1, skip, chosen);
+                progress |= chosen.size() > before;
+            }
+        }
+        return new ArrayList<>(chosen);
+    }
+
+    // Adds ids from the pool to chosen until it holds k. Random probes keep it O(k) while most of the pool is still eligible,
+    // the scan from a random offset only runs once probing keeps hitting chosen or skipped ids
+    private static List<Long> draw(long[] pool, int k, LongPredicate skip, Set<Long> chosen) {
+        if (k <= chosen.size() || pool.length == 0) {
+            return new ArrayList<>(chosen);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int attempts = (k - chosen.size()) * ATTEMPTS_PER_ID;
+        for (int i = 0; i < attempts && chosen.size() < k; i++) {
+            long id = pool[random.nextInt(pool.length)];
+            if (!chosen.contains(id) && !skip.test(id)) {
+                chosen.add(id);
+            }
+        }
+
+        int offset = random.nextInt(pool.length);
+        for (int i = 0; i < pool.length && chosen.size() < k; i++) {
+            long id = pool[(offset + i) % pool.length];
+            if (!chosen.contains(id) && !skip.test(id)) {
+                chosen.add(id);
+            }
+        }
+        return new ArrayList<>(chosen);
+    }
+
+    private static int[] shuffledOrder(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+
+    private static Snapshot build(Map<Long, String> categoryById) {
+        long[] ids = new long[categoryById.size()];
+        Map<String, List<Long>> grouped = new HashMap<>();
+        int i = 0;
+        for (Map.Entry<Long, String> entry : categoryById.entrySet()) {
+            ids[i++] = entry.getKey();
+            grouped.computeIfAbsent(entry.getValue(), key -> new ArrayList<>()).add(entry.getKey());
+        }
+        long[][] byCategory = grouped.values().stream()
+                .map(group -> group.stream().mapToLong(Long::longValue).toArray())
+                .toArray(long[][]::new);
+        return new Snapshot(ids, byCategory);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+Full-text search over the recipe catalog: an inverted index from terms to posting lists of recipe ordinals, ranked with BM25.
+Name, category, area, tags and ingredient names are indexed, a term found in the name counts for more than one in an ingredient.
+Recipes are re-indexed as they are written and the index keeps each recipe's card, so a query never touches the database.
+ */
+
+package spring.demo.service.index;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import spring.demo.models.Recipe;
+import spring.demo.models.RecipeSummary;
+import spring.demo.models.RecipeWrittenEvent;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+@Component
+public class RecipeSearchIndex {
+
+    // how much one occurrence of a term in each field adds to the recipe's term frequency
+    private static final float NAME = 3f;
+    private static final float CATEGORY = 2f;
+    private static final float AREA = 1.5f;
+    private static final float TAGS = 1.5f;
+    private static final float INGREDIENT = 1f;
+
+    // the usual BM25 constants: term frequency saturation and how strongly long recipes are normalized
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final Set<String> STOP_WORDS = Set.of("a", "an", "and", "the", "of", "with", "in", "on", "for", "to", "or");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    // Ordinals posted under one term with the recipe's weighted frequency of it, unsorted
+    private static final class Postings {
+        int[] ordinals = new int[4];
+        float[] frequencies = new float[4];
+        int size;
+
+        void add(int ordinal, float frequency) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            ordinals[size] = ordinal;
+            frequencies[size] = frequency;
+            size++;
+        }
+
+        void remove(int ordinal) {
+            for (int i = 0; i < size; i++) {
+                if (ordinals[i] == ordinal) {
+                    size--;
+                    ordinals[i] = ordinals[size];
+                    frequencies[i] = frequencies[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    private final RecipeCatalog catalog;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    // per ordinal: the terms it is posted under, its weighted length and its card
+    private String[][] terms = new String[256][];
+    private float[] lengths = new float[256];
+    private RecipeSummary[] cards = new RecipeSummary[256];
+    private int documents;
+    private double totalLength;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public RecipeSearchIndex(RecipeCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRecipesWritten(RecipeWrittenEvent event) {
+        for (Recipe recipe : event.recipes()) {
+            index(recipe);
+        }
+    }
+
+    // Tokenizes the recipe's fields outside the lock, then swaps its postings for the new ones
+    public void index(Recipe recipe) {
+        int ordinal = catalog.register(recipe.getId());
+
+        Map<String, Float> frequencies = new HashMap<>();
+        addField(frequencies, recipe.getName(), NAME);
+        addField(frequencies, recipe.getCategory(), CATEGORY);
+        addField(frequencies, recipe.getArea(), AREA);
+        addField(frequencies, recipe.getTags(), TAGS);
+        if (recipe.getIngredients() != null) {
+            for (String ingredient : recipe.getIngredients().keySet()) {
+                addField(frequencies, ingredient, INGREDIENT);
+            }
+        }
+        float length = 0;
+        for (float frequency : frequencies.values()) {
+            length += frequency;
+        }
+        RecipeSummary card = RecipeSummary.of(recipe);
+
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(ordinal);
+            // a re-indexed recipe may have lost terms since it was last seen
+            if (terms[ordinal] != null) {
+                for (String term : terms[ordinal]) {
+                    Postings list = postings.get(term);
+                    list.remove(ordinal);
+                    if (list.size == 0) {
+                        postings.remove(term);
+                    }
+                }
+                totalLength -= lengths[ordinal];
+                documents--;
+            }
+            for (Map.Entry<String, Float> entry : frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), k -> new Postings()).add(ordinal, entry.getValue());
+            }
+            terms[ordinal] = frequencies.keySet().toArray(String[]::new);
+            lengths[ordinal] = length;
+            cards[ordinal] = card;
+            totalLength += length;
+            documents++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The best matching recipes for a free-text query, highest BM25 score first. A recipe needs one query term to match
+    public List<RecipeSummary> search(String query, int limit) {
+        Set<String> queryTerms = new LinkedHashSet<>(tokenize(query));
+        if (queryTerms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            if (documents == 0) {
+                return List.of();
+            }
+            double averageLength = totalLength / documents;
+            float[] scores = new float[cards.length];
+            BitSet matched = new BitSet();
+            for (String term : queryTerms) {
+                Postings list = postings.get(term);
+                if (list == null) continue;
+
+                double idf = Math.log(1 + (documents - list.size + 0.5) / (list.size + 0.5));
+                for (int i = 0; i < list.size; i++) {
+                    int ordinal = list.ordinals[i];
+                    double tf = list.frequencies[i];
+                    double norm = K1 * (1 - B + B * lengths[ordinal] / averageLength);
+                    scores[ordinal] += (float) (idf * tf * (K1 + 1) / (tf + norm));
+                    matched.set(ordinal);
+                }
+            }
+
+            // min-heap of the best so far, ties go to the older recipe
+            Comparator<Integer> rank = Comparator.<Integer>comparingDouble(o -> scores[o]).thenComparing(o -> -o);
+            PriorityQueue<Integer> best = new PriorityQueue<>(limit + 1, rank);
+            for (int ordinal = matched.nextSetBit(0); ordinal >= 0; ordinal = matched.nextSetBit(ordinal + 1)) {
+                best.add(ordinal);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            RecipeSummary[] results = new RecipeSummary[best.size()];
+            for (int i = results.length - 1; i >= 0; i--) {
+                results[i] = cards[best.poll()];
+            }
+            return List.of(results);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void addField(Map<String, Float> frequencies, String text, float weight) {
+        for (String term : tokenize(text)) {
+            frequencies.merge(term, weight, Float::sum);
+        }
+    }
+
+    // Lowercases, drops accents and stop words, and folds plurals so "Tomatoes" finds "tomato"
+    static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String token : SEPARATORS.split(fold(text))) {
+            if (token.length() < 2 || STOP_WORDS.contains(token)) continue;
+            tokens.add(stem(token));
+        }
+        return tokens;
+    }
+
+    // Lowercase without accents, the form both search and autocomplete compare names in
+    static String fold(String text) {
+        return MARKS.matcher(Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD)).replaceAll("");
+    }
+
+    static String stem(String token) {
+        int n = token.length();
+        if (n > 4 && token.endsWith("ies")) return token.substring(0, n - 3) + "y";
+        if (n > 4 && token.endsWith("oes")) return token.substring(0, n - 2);
+        if (n > 3 && token.endsWith("s") && !token.endsWith("ss") && !token.endsWith("us")) return token.substring(0, n - 1);
+        return token;
+    }
+
+    private void ensureCapacity(int ordinal) {
+        if (ordinal < cards.length) return;
+        int size = Math.max(cards.length * 2, ordinal + 1);
+        terms = Arrays.copyOf(terms, size);
+        lengths = Arrays.copyOf(lengths, size);
+        cards = Arrays.copyOf(cards, size);
+    }
+}
@@ -0,0 +1,246 @@
+package spring.demo.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import spring.demo.models.User;
+import spring.demo.models.UserMealPlan;
+import spring.demo.models.UserPreference;
+import spring.demo.models.repository.UserRepository;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class ConcurrentOnboardingTest {
+
+    // calories, meals: per meal limits of 400, 450, 666 and 480 calories
+    private static final int[][] PROFILES = {{1200, 3}, {1800, 4}, {2000, 3}, {2400, 5}};
+    private static final int USERS = 24;
+    private static final int THREADS = 8;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private BCryptPasswordEncoder passwordEncoder;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void concurrentOnboardingsShouldOnlySeeTheirOwnPlan() throws Exception {
+        String run = Long.toString(System.currentTimeMillis());
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            String email = "stress" + i + "-" + run + "@example.com";
+            User user = new User();
+            user.setEmail(email);
+            user.setPassword(passwordEncoder.encode("password"));
+            user.setPreferences(new UserPreference());
+            userRepository.save(user);
+            emails.add(email);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<MvcResult>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < USERS; i++) {
+                String email = emails.get(i);
+                UserPreference pref = preferences(PROFILES[i % PROFILES.length]);
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return mockMvc.perform(post("/api/onboarding")
+                                    .with(user(email))
+                                    .contentType(MediaType.APPLICATION_JSON)
+                                    .content(objectMapper.writeValueAsString(pref)))
+                            .andReturn();
+                }));
+            }
+            start.countDown();
+
+            for (int i = 0; i < USERS; i++) {
+                int[] profile = PROFILES[i % PROFILES.length];
+                int calories = profile[0], meals = profile[1];
+                MvcResult result = results.get(i).get(60, TimeUnit.SECONDS);
+                assertEquals(200, result.getResponse().getStatus(), "onboarding failed for " + emails.get(i));
+
+                JsonNode recipes = objectMapper.readTree(result.getResponse().getContentAsString());
+                assertTrue(recipes.size() >= 13);
+                assertTrue(recipes.size() <= meals * 7, "plan larger than " + meals + " meals a day");
+                for (JsonNode recipe : recipes) {
+                    assertTrue(recipe.get("calories").asInt() <= calories / meals,
+                            recipe.get("name").asText() + " is over " + emails.get(i) + "'s per meal calories");
+                }
+
+                User saved = userRepository.findByEmail(emails.get(i)).orElseThrow();
+                assertEquals(calories, saved.getPreferences().getCalories());
+                assertEquals(meals, saved.getPreferences().getMeals());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void duplicateAsyncOnboardingsShouldJoinOneJob() throws Exception {
+        String email = "async-" + System.currentTimeMillis() + "@example.com";
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword(passwordEncoder.encode("password"));
+        user.setPreferences(new UserPreference());
+        userRepository.save(user);
+
+        String body = objectMapper.writeValueAsString(preferences(PROFILES[0]));
+        int submissions = 6;
+        ExecutorService pool = Executors.newFixedThreadPool(submissions);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<MvcResult>> results = new ArrayList<>();
+        Set<String> jobIds = new HashSet<>();
+        try {
+            for (int i = 0; i < submissions; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return mockMvc.perform(post("/api/onboarding").param("async", "true")
+                                    .with(user(email))
+                                    .contentType(MediaType.APPLICATION_JSON)
+                                    .content(body))
+                            .andReturn();
+                }));
+            }
+            start.countDown();
+            for (Future<MvcResult> result : results) {
+                MvcResult response = result.get(30, TimeUnit.SECONDS);
+                assertEquals(202, response.getResponse().getStatus());
+                jobIds.add(objectMapper.readTree(response.getResponse().getContentAsString()).get("jobId").asText());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertTrue(jobIds.size() < submissions, "every submission started its own job");
+
+        for (String jobId : jobIds) {
+            JsonNode job = null;
+            for (int attempt = 0; attempt < 300; attempt++) {
+                MvcResult response = mockMvc.perform(get("/api/meal-plans/jobs/" + jobId).with(user(email))).andReturn();
+                assertEquals(200, response.getResponse().getStatus());
+                job = objectMapper.readTree(response.getResponse().getContentAsString());
+                if (job.get("status").asText().equals("DONE") || job.get("status").asText().equals("FAILED")) break;
+                Thread.sleep(100);
+            }
+            assertEquals("DONE", job.get("status").asText());
+            assertEquals("SELECTED", job.get("progress").get("stage").asText());
+            for (JsonNode recipe : job.get("recipes")) {
+                assertTrue(recipe.get("calories").asInt() <= PROFILES[0][0] / PROFILES[0][1]);
+            }
+        }
+
+        // another user's job id is not visible
+        String jobId = jobIds.iterator().next();
+        assertEquals(404, mockMvc.perform(get("/api/meal-plans/jobs/" + jobId).with(user("test1@example.com")))
+                .andReturn().getResponse().getStatus());
+    }
+
+    @Test
+    void concurrentPlanChangesFromOneUserShouldAllApply() throws Exception {
+        String email = "tabs-" + System.currentTimeMillis() + "@example.com";
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword(passwordEncoder.encode("password"));
+        user.setPreferences(new UserPreference());
+        userRepository.save(user);
+
+        UserPreference pref = preferences(PROFILES[3]);
+        assertEquals(200, mockMvc.perform(post("/api/onboarding")
+                        .with(user(email))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(pref)))
+                .andReturn().getResponse().getStatus());
+        // plan today's meals like /load would
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        List<String> planned = transaction.execute(status -> {
+            List<UserMealPlan> plans = userRepository.findByEmail(email).orElseThrow().getMealPlans();
+            List<String> names = new ArrayList<>();
+            for (UserMealPlan plan : plans.subList(0, pref.getMeals())) {
+                plan.setPlanned(true);
+                names.add(plan.getRecipe().getName());
+            }
+            return names;
+        });
+
+        long acquiredBefore = lockStats(email).get("acquired").asLong();
+
+        // every planned meal eaten from its own tab while preferences are saved from others
+        List<Callable<MvcResult>> changes = new ArrayList<>();
+        for (String name : planned) {
+            changes.add(() -> mockMvc.perform(put("/api/meals/updateMeal").param("name", name).with(user(email))).andReturn());
+        }
+        for (int i = 0; i < planned.size(); i++) {
+            changes.add(() -> mockMvc.perform(post("/api/user/preferences")
+                            .with(user(email))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(pref)))
+                    .andReturn());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(changes.size());
+        try {
+            for (Future<MvcResult> result : pool.invokeAll(changes, 60, TimeUnit.SECONDS)) {
+                assertEquals(200, result.get().getResponse().getStatus());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<String> eaten = transaction.execute(status ->
+                userRepository.findByEmail(email).orElseThrow().getMealPlans().stream()
+                        .filter(UserMealPlan::isPlanned)
+                        .filter(UserMealPlan::isEaten)
+                        .map(plan -> plan.getRecipe().getName())
+                        .toList());
+        assertEquals(new HashSet<>(planned), new HashSet<>(eaten));
+        assertTrue(lockStats(email).get("acquired").asLong() >= acquiredBefore + changes.size());
+    }
+
+    private JsonNode lockStats(String email) throws Exception {
+        MvcResult stats = mockMvc.perform(get("/api/metrics/plan-locks").with(user(email))).andReturn();
+        assertEquals(200, stats.getResponse().getStatus());
+        return objectMapper.readTree(stats.getResponse().getContentAsString());
+    }
+
+    private static UserPreference preferences(int[] profile) {
+        UserPreference pref = new UserPreference();
+        pref.setCalories(profile[0]);
+        pref.setMeals(profile[1]);
+        pref.setBudget(100.0);
+        return pref;
+    }
+}
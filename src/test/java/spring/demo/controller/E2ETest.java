@@ -15,6 +15,7 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import spring.demo.models.*;
 import spring.demo.models.repository.RecipeRepository;
 import spring.demo.models.repository.UserRepository;
@@ -23,6 +24,9 @@ import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.jwt;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
@@ -132,4 +136,46 @@ public class E2ETest {
 
 
 
-}
\ No newline at end of file
+
+    @Test
+    void shouldStreamPlanProgressEvents() throws Exception {
+        String email = "sse-" + System.currentTimeMillis() + "@example.com";
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword(passwordEncoder.encode("password"));
+        user.setPreferences(new UserPreference());
+        userRepository.save(user);
+
+        UserPreference preferences = new UserPreference();
+        preferences.setCalories(2000);
+        preferences.setBudget(100.0);
+        preferences.setMeals(3);
+
+        MvcResult submitted = mockMvc.perform(post("/api/onboarding").param("async", "true")
+                        .with(user(email))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(preferences)))
+                .andExpect(status().isAccepted())
+                .andReturn();
+        String jobId = objectMapper.readTree(submitted.getResponse().getContentAsString()).get("jobId").asText();
+
+        MvcResult stream = mockMvc.perform(get("/api/meal-plans/jobs/" + jobId + "/events").with(user(email)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        stream.getAsyncResult(30_000);
+
+        String events = stream.getResponse().getContentAsString();
+        assertTrue(events.contains("event:loaded"), events);
+        assertTrue(events.contains("event:pricing"), events);
+        assertTrue(events.contains("event:calorie_filtered"), events);
+        assertTrue(events.contains("event:selected"), events);
+        assertTrue(events.contains("event:done"), events);
+        assertTrue(events.indexOf("event:loaded") < events.indexOf("event:done"));
+
+        // a finished job keeps its last progress after letting go of the plan's working state
+        mockMvc.perform(get("/api/meal-plans/jobs/" + jobId).with(user(email)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("DONE"))
+                .andExpect(jsonPath("$.progress.stage").value("SELECTED"));
+    }
+}
@@ -1,6 +1,10 @@
 package spring.demo.controller;
 
+import jakarta.persistence.EntityManagerFactory;
 import jakarta.transaction.Transactional;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.apache.catalina.Store;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
@@ -13,15 +17,30 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import spring.demo.models.*;
 import spring.demo.models.repository.IngredientRepository;
 import spring.demo.models.repository.RecipeRepository;
 import spring.demo.models.repository.UserRepository;
+import spring.demo.service.MealPlanArchiver;
+import spring.demo.service.MealPlanService;
+import spring.demo.service.PlanLockService;
+import spring.demo.service.PricedIngredientWriter;
+import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -49,6 +68,30 @@ public class IntegrationTests {
     @Autowired
     private RecipeRepository recipeRepository;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private PricedIngredientWriter pricedIngredientWriter;
+
+    @Autowired
+    private MealPlanArchiver mealPlanArchiver;
+
+    @Autowired
+    private MealPlanService mealPlanService;
+
+    @Autowired
+    private PlanLockService planLockService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
 
 
     @Test
@@ -110,7 +153,10 @@ public class IntegrationTests {
         mockMvc.perform(get("/api/user/grocery-list"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$").isArray())
-                .andExpect(jsonPath("$.length()").value(1));
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].name").value(ingredient.getName()))
+                .andExpect(jsonPath("$[0].totalPrice").value(5.94))
+                .andExpect(jsonPath("$[0].purchased").value(false));
     }
 
     @Test
@@ -149,7 +195,10 @@ public class IntegrationTests {
         mockMvc.perform(get("/api/meals"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$").isArray())
-                .andExpect(jsonPath("$.length()").value(2));
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].calories").value(412))
+                .andExpect(jsonPath("$[0].instructions").doesNotExist())
+                .andExpect(jsonPath("$[0].ingredients").doesNotExist());
     }
 
     @Test
@@ -228,6 +277,388 @@ public class IntegrationTests {
 
 
 
+    //the dashboard's statement count must not grow with the size of the plan or the grocery list, and repeat loads are cached
+    @Test
+    void dashboardShouldLoadInAFixedNumberOfStatementsAndCacheUntilChanged() throws Exception {
+        String email = "dashboard-" + System.currentTimeMillis() + "@example.com";
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            UserPreference pref = new UserPreference();
+            pref.setCalories(2400);
+            pref.setMeals(3);
+            pref.setBudget(100.0);
+
+            User user = new User();
+            user.setEmail(email);
+            user.setPassword(passwordEncoder.encode("password"));
+            user.setPreferences(pref);
+
+            // a week of meals with today's three planned, and a grocery row per meal
+            List<Recipe> recipes = recipeRepository.findAll().subList(0, 21);
+            for (int i = 0; i < recipes.size(); i++) {
+                UserMealPlan plan = new UserMealPlan(user, recipes.get(i));
+                plan.setPlanned(i < 3);
+                user.getMealPlans().add(plan);
+
+                Ingredient ingredient = new Ingredient(email + " item " + i);
+                ingredient.setPrice(1.5);
+                user.getGroceryList().add(new UserIngredient(user, ingredientRepository.save(ingredient)));
+            }
+            userRepository.save(user);
+        });
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        try {
+            String body = mockMvc.perform(get("/api/load").with(user(email)))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.selectedMeals.length()").value(3))
+                    .andExpect(jsonPath("$.randomMeals.length()").value(2))
+                    .andExpect(jsonPath("$.groceryList.length()").value(21))
+                    .andReturn().getResponse().getContentAsString();
+            // user with plan and recipes (ingredients included), the grocery projection and today's calories.
+            // The random picks come from the timer-refreshed cache
+            assertEquals(3, statistics.getPrepareStatementCount());
+
+            // served from the dashboard cache until the plan changes
+            statistics.clear();
+            mockMvc.perform(get("/api/load").with(user(email)))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.selectedMeals.length()").value(3))
+                    .andExpect(jsonPath("$.eaten").value(0));
+            assertEquals(0, statistics.getPrepareStatementCount());
+
+            String meal = objectMapper.readTree(body).get("selectedMeals").get(0).get("name").asText();
+            mockMvc.perform(put("/api/meals/updateMeal").param("name", meal).with(user(email)))
+                    .andExpect(status().isOk());
+
+            statistics.clear();
+            mockMvc.perform(get("/api/load").with(user(email)))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.eaten").value(recipeRepository.findByNameIgnoreCase(meal).orElseThrow().getCalories()));
+            assertTrue(statistics.getPrepareStatementCount() > 0);
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+
+        mockMvc.perform(get("/api/metrics/dashboard-cache").with(user(email)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.hits").value(greaterThanOrEqualTo(1)))
+                .andExpect(jsonPath("$.invalidations").value(greaterThanOrEqualTo(1)));
+    }
+
+    //a 21 meal plan and its grocery rows go out as a few batched inserts, with identity ids it took one statement per row
+    @Test
+    void planShouldBeSavedInBatchedInserts() {
+        String email = "batch-" + System.currentTimeMillis() + "@example.com";
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        List<Ingredient> ingredients = new ArrayList<>();
+        tx.executeWithoutResult(status -> {
+            UserPreference pref = new UserPreference();
+            pref.setCalories(2000);
+            pref.setMeals(3);
+            pref.setBudget(100.0);
+
+            User user = new User();
+            user.setEmail(email);
+            user.setPassword(passwordEncoder.encode("password"));
+            user.setPreferences(pref);
+            userRepository.save(user);
+            for (int i = 0; i < 40; i++) {
+                ingredients.add(ingredientRepository.save(new Ingredient(email + " item " + i)));
+            }
+        });
+        List<Recipe> recipes = recipeRepository.findAll().subList(0, 21);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        try {
+            tx.executeWithoutResult(status -> {
+                User user = userRepository.findByEmail(email).orElseThrow();
+                for (Recipe recipe : recipes) {
+                    user.getMealPlans().add(new UserMealPlan(user, recipe));
+                }
+                for (Ingredient ingredient : ingredients) {
+                    user.getGroceryList().add(new UserIngredient(user, ingredient));
+                }
+                userRepository.save(user);
+            });
+
+            long rows = statistics.getEntityInsertCount();
+            long statements = statistics.getPrepareStatementCount();
+
+            assertEquals(61, rows);
+            // the user and both collections, one sequence call per table and one batch per table
+            assertTrue(statements <= 7, "statements: " + statements);
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+        assertEquals(21, recipeRepository.findRecipeSummariesByUserId(userRepository.findIdByEmail(email).orElseThrow()).size());
+    }
+
+    //repeat recipe and ingredient lookups come from the second-level cache, and a price upsert is seen on the next read
+    @Test
+    void recipeAndIngredientLookupsShouldBeCachedUntilWritten() throws Exception {
+        Recipe recipe = recipeRepository.findAll().get(0);
+        String recipeName = recipe.getName();
+        Ingredient ingredient = new Ingredient("cached item " + System.currentTimeMillis());
+        ingredient.setPrice(1.0);
+        ingredientRepository.save(ingredient);
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        try {
+            // first lookups fill the query and entity regions, the repeats read no rows
+            tx.executeWithoutResult(status -> {
+                recipeRepository.findByNameIgnoreCase(recipeName).orElseThrow();
+                ingredientRepository.findByNameIgnoreCase(ingredient.getName()).orElseThrow();
+            });
+            long first = statistics.getPrepareStatementCount();
+            tx.executeWithoutResult(status -> {
+                recipeRepository.findByNameIgnoreCase(recipeName).orElseThrow();
+                ingredientRepository.findByNameIgnoreCase(ingredient.getName()).orElseThrow();
+            });
+            assertTrue(first > 0);
+            assertEquals(first, statistics.getPrepareStatementCount());
+            // lazy plan recipes and /api/meal load by id, straight from the entity region
+            tx.executeWithoutResult(status -> recipeRepository.findById(recipe.getId()).orElseThrow());
+            assertEquals(first, statistics.getPrepareStatementCount());
+
+            mockMvc.perform(get("/api/metrics/entity-cache").with(user("test@example.com")))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[?(@.region == 'recipe-queries')].hits").value(contains(1)))
+                    .andExpect(jsonPath("$[?(@.region == 'ingredient-queries')].hitRatio").value(contains(0.5)))
+                    .andExpect(jsonPath("$[?(@.region == 'recipes')].hits").value(contains(greaterThanOrEqualTo(1))));
+
+            // written around Hibernate, the cached row and query results are dropped
+            Ingredient repriced = new Ingredient(ingredient.getName());
+            repriced.setPrice(4.0);
+            tx.executeWithoutResult(status -> pricedIngredientWriter.write(List.of(repriced)));
+            assertEquals(4.0, tx.execute(status ->
+                    ingredientRepository.findByNameIgnoreCase(ingredient.getName()).orElseThrow().getTotalPrice()));
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    //eaten meals land in the user's daily rollup, which the stats endpoint reads a row per day from
+    @Test
+    void eatenMealsShouldRollUpIntoDailyIntakeStats() throws Exception {
+        String email = "intake-" + System.currentTimeMillis() + "@example.com";
+        List<Recipe> recipes = recipeRepository.findAll().subList(0, 3);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            UserPreference pref = new UserPreference();
+            pref.setCalories(2000);
+            pref.setMeals(3);
+            pref.setBudget(100.0);
+
+            User user = new User();
+            user.setEmail(email);
+            user.setPassword(passwordEncoder.encode("password"));
+            user.setPreferences(pref);
+            for (Recipe recipe : recipes) {
+                UserMealPlan plan = new UserMealPlan(user, recipe);
+                plan.setPlanned(true);
+                user.getMealPlans().add(plan);
+            }
+            userRepository.save(user);
+        });
+
+        for (Recipe recipe : recipes.subList(0, 2)) {
+            mockMvc.perform(put("/api/meals/updateMeal").param("name", recipe.getName()).with(user(email)))
+                    .andExpect(status().isOk());
+        }
+        int calories = recipes.get(0).getCalories() + recipes.get(1).getCalories();
+        int protein = recipes.get(0).getProtein() + recipes.get(1).getProtein();
+
+        mockMvc.perform(get("/api/stats/intake").with(user(email)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.period").value("week"))
+                .andExpect(jsonPath("$.days.length()").value(7))
+                .andExpect(jsonPath("$.days[6].calories").value(calories))
+                .andExpect(jsonPath("$.days[6].meals").value(2))
+                .andExpect(jsonPath("$.days[5].meals").value(0))
+                .andExpect(jsonPath("$.calories").value(calories))
+                .andExpect(jsonPath("$.protein").value(protein))
+                .andExpect(jsonPath("$.targetCalories").value(2000));
+
+        mockMvc.perform(get("/api/stats/intake").param("period", "month").with(user(email)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.days.length()").value(30))
+                .andExpect(jsonPath("$.meals").value(2));
+
+        mockMvc.perform(get("/api/stats/intake").param("period", "year").with(user(email)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void eatenMealsShouldMoveFromThePlanToTheArchive() throws Exception {
+        String email = "archive-" + System.currentTimeMillis() + "@example.com";
+        List<Recipe> recipes = recipeRepository.findAll().subList(0, 4);
+        Long userId = new TransactionTemplate(transactionManager).execute(status -> {
+            UserPreference pref = new UserPreference();
+            pref.setCalories(2000);
+            pref.setMeals(3);
+            pref.setBudget(100.0);
+
+            User user = new User();
+            user.setEmail(email);
+            user.setPassword(passwordEncoder.encode("password"));
+            user.setPreferences(pref);
+            for (Recipe recipe : recipes.subList(0, 3)) {
+                UserMealPlan plan = new UserMealPlan(user, recipe);
+                plan.setPlanned(true);
+                user.getMealPlans().add(plan);
+            }
+            // history left behind before archiving existed, only the sweep finds it
+            UserMealPlan old = new UserMealPlan(user, recipes.get(3));
+            old.setEaten(true);
+            old.setEatenDate(LocalDate.now().minusDays(40));
+            user.getMealPlans().add(old);
+            return userRepository.save(user).getId();
+        });
+
+        mealPlanArchiver.sweep();
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM user_meal_plan_archive WHERE user_id = ?", Integer.class, userId));
+
+        for (Recipe recipe : recipes.subList(0, 3)) {
+            mockMvc.perform(put("/api/meals/updateMeal").param("name", recipe.getName()).with(user(email)))
+                    .andExpect(status().isOk());
+        }
+        // the next dashboard sees the day is done, unplans the eaten meals and picks new ones
+        List<Recipe> next = planLockService.mutate(email, () -> mealPlanService.selectMeals(
+                userRepository.findWithMealPlansByEmail(email).orElseThrow(), List.of()));
+        assertFalse(next.isEmpty());
+
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM user_meal_plans WHERE user_id = ? AND eaten = true", Integer.class, userId));
+        assertEquals(4, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM user_meal_plan_archive WHERE user_id = ?", Integer.class, userId));
+        assertEquals(3, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM user_meal_plan_archive WHERE user_id = ? AND eaten_date = ?", Integer.class,
+                userId, LocalDate.now()));
+
+        // the daily totals don't depend on the rows that moved
+        mockMvc.perform(get("/api/stats/intake").with(user(email)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.days[6].meals").value(3));
+
+        // and the meal list still shows them, in the order they were first planned
+        int live = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_meal_plans WHERE user_id = ?", Integer.class, userId);
+        var meals = objectMapper.readTree(mockMvc.perform(get("/api/meals").param("limit", "50").with(user(email)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString());
+        assertEquals(live + 4, meals.size());
+        List<String> first = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            first.add(meals.get(i).get("name").asText());
+        }
+        assertEquals(List.of(recipes.get(0).getName(), recipes.get(1).getName(), recipes.get(2).getName(),
+                recipes.get(3).getName()), first);
+    }
+
+    @Test
+    void mealsShouldBePagedByCursorWithFiltersApplied() throws Exception {
+        String email = "pages-" + System.currentTimeMillis() + "@example.com";
+        List<Recipe> recipes = recipeRepository.findAll().subList(0, 5);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            User user = new User();
+            user.setEmail(email);
+            user.setPassword(passwordEncoder.encode("password"));
+            for (int i = 0; i < recipes.size(); i++) {
+                UserMealPlan plan = new UserMealPlan(user, recipes.get(i));
+                plan.setPlanned(i < 2);
+                plan.setEaten(i == 3);
+                user.getMealPlans().add(plan);
+            }
+            userRepository.save(user);
+        });
+        // the eaten meal moves to the archive and pages with the live rows under its old id
+        mealPlanArchiver.sweep();
+
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            var request = get("/api/meals").param("limit", "2").with(user(email));
+            if (cursor != null) {
+                request.param("cursor", cursor);
+            }
+            var response = mockMvc.perform(request)
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(pages < 2 ? 2 : 1))
+                    .andReturn().getResponse();
+            for (var node : objectMapper.readTree(response.getContentAsString())) {
+                names.add(node.get("name").asText());
+            }
+            cursor = response.getHeader("X-Next-Cursor");
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(recipes.stream().map(Recipe::getName).toList(), names);
+
+        mockMvc.perform(get("/api/meals").param("planned", "true").with(user(email)))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-Cursor"))
+                .andExpect(jsonPath("$[*].name", contains(recipes.get(0).getName(), recipes.get(1).getName())));
+
+        // filters apply to history too, which is never planned
+        mockMvc.perform(get("/api/meals").param("planned", "false").with(user(email)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", contains(recipes.get(2).getName(), recipes.get(3).getName(),
+                        recipes.get(4).getName())));
+        int calories = recipes.get(3).getCalories();
+        long lighter = recipes.subList(2, 5).stream().filter(r -> r.getCalories() <= calories).count();
+        mockMvc.perform(get("/api/meals").param("planned", "false").param("maxCalories", Integer.toString(calories))
+                        .with(user(email)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value((int) lighter))
+                .andExpect(jsonPath("$[*].name", hasItem(recipes.get(3).getName())));
+
+        String category = recipes.get(2).getCategory();
+        long inCategory = recipes.stream().filter(r -> category.equals(r.getCategory())).count();
+        mockMvc.perform(get("/api/meals").param("category", category.toUpperCase()).with(user(email)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value((int) inCategory));
+
+        mockMvc.perform(get("/api/meals").param("cursor", "abc").with(user(email)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @WithMockUser(username = "test@example.com")
+    void searchShouldFindSeededRecipesByNameAndIngredient() throws Exception {
+        mockMvc.perform(get("/api/recipes/search").param("q", "chicken masala").param("limit", "3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].name").value("Chicken Tikka Masala"))
+                .andExpect(jsonPath("$[0].instructions").doesNotExist());
+
+        mockMvc.perform(get("/api/recipes/search").param("q", " "))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @WithMockUser(username = "test@example.com")
+    void autocompleteShouldCompleteSeededNamesAndResolveMealsByName() throws Exception {
+        mockMvc.perform(get("/api/autocomplete").param("prefix", "tikka"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.recipes[0].name").value("Chicken Tikka Masala"))
+                .andExpect(jsonPath("$.ingredients").isArray());
+
+        mockMvc.perform(get("/api/meal").param("name", "CHICKEN tikka masala"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Chicken Tikka Masala"));
+
+        mockMvc.perform(get("/api/autocomplete"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void shouldReturn403WithoutAuth() throws Exception {
         // No @WithMockUser = no authentication
@@ -0,0 +1,235 @@
+package spring.demo.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import spring.demo.config.security.JwtService;
+import spring.demo.models.Recipe;
+import spring.demo.models.Role;
+import spring.demo.models.User;
+import spring.demo.models.UserPreference;
+import spring.demo.models.repository.RecipeRepository;
+import spring.demo.models.repository.UserRepository;
+import spring.demo.service.PriceService;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/*
+Closed-loop load test of POST /api/onboarding over real HTTP with the price API stubbed to a fixed latency.
+Each level runs that many clients, each onboarding its own user a few times; a level is sustained when nothing fails
+and p99 stays under the target. Subclasses pick the thread mode. Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.spring.demo=WARN",
+        "spring.datasource.hikari.maximum-pool-size=64"
+})
+abstract class OnboardingBenchmarkSupport {
+
+    private static final int RECIPES = 30;
+    private static final int INGREDIENTS_PER_RECIPE = 6;
+    private static final int DISTINCT_INGREDIENTS = 48;
+
+    @LocalServerPort
+    private int port;
+
+    @MockitoBean
+    private PriceService priceService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private RecipeRepository recipeRepository;
+
+    @Autowired
+    private JwtService jwtService;
+
+    @Autowired
+    private BCryptPasswordEncoder passwordEncoder;
+
+    @Value("${benchmark.levels:1,2,4,8,16,32,64,128}")
+    private int[] levels;
+
+    @Value("${benchmark.rounds:2}")
+    private int rounds;
+
+    @Value("${benchmark.price-latency-ms:50}")
+    private long priceLatencyMs;
+
+    @Value("${benchmark.p99-target-ms:3000}")
+    private long p99TargetMs;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    // name of the mode being measured, for the report
+    abstract String mode();
+
+    @BeforeEach
+    void stubPriceApi() throws Exception {
+        // no product found: every onboarding pays the remote round trip for each ingredient it needs
+        when(priceService.getIngredient(anyString())).thenAnswer(invocation -> {
+            Thread.sleep(priceLatencyMs);
+            return null;
+        });
+    }
+
+    @Test
+    void maxSustainableConcurrentOnboardings() throws Exception {
+        seedRecipes();
+        int maxLevel = Arrays.stream(levels).max().orElse(0);
+        List<String> tokens = seedUsers(maxLevel);
+
+        List<String> report = new ArrayList<>();
+        int sustained = 0;
+        long sustainedP99 = 0;
+        for (int level : levels) {
+            Result result = runLevel(level, tokens);
+            report.add(String.format("mode=%s level=%d requests=%d errors=%d p50=%dms p99=%dms throughput=%.1f/s",
+                    mode(), level, result.latencies.size(), result.errors,
+                    result.percentile(50), result.percentile(99), result.throughput()));
+            if (result.errors > 0 || result.percentile(99) > p99TargetMs) {
+                break;
+            }
+            sustained = level;
+            sustainedP99 = result.percentile(99);
+        }
+        report.add(String.format("mode=%s max sustainable concurrent onboardings=%d (p99 %dms, target %dms, price latency %dms)",
+                mode(), sustained, sustainedP99, p99TargetMs, priceLatencyMs));
+
+        report.forEach(System.out::println);
+        Path out = Path.of("target", "benchmark", "onboarding.txt");
+        Files.createDirectories(out.getParent());
+        Files.write(out, report, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        assertTrue(sustained > 0, "the lowest level was not sustained in " + mode() + " mode");
+    }
+
+    private Result runLevel(int level, List<String> tokens) throws Exception {
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        int[] errors = {0};
+        long start = System.nanoTime();
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> running = new ArrayList<>();
+            for (int c = 0; c < level; c++) {
+                String token = tokens.get(c);
+                running.add(clients.submit(() -> {
+                    for (int r = 0; r < rounds; r++) {
+                        long sent = System.nanoTime();
+                        boolean ok = onboard(token);
+                        latencies.add((System.nanoTime() - sent) / 1_000_000);
+                        if (!ok) {
+                            synchronized (errors) {
+                                errors[0]++;
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> client : running) {
+                client.get();
+            }
+        }
+        return new Result(new ArrayList<>(latencies), errors[0], System.nanoTime() - start);
+    }
+
+    private boolean onboard(String token) {
+        String body = "{\"calories\":2400,\"meals\":3,\"budget\":150.0}";
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/onboarding"))
+                .timeout(Duration.ofSeconds(60))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void seedRecipes() {
+        for (int i = 0; i < RECIPES; i++) {
+            String name = "Benchmark Meal " + mode() + " " + i;
+            if (recipeRepository.findByNameIgnoreCase(name).isPresent()) continue;
+
+            Recipe recipe = new Recipe();
+            recipe.setName(name);
+            recipe.setCategory("Chicken");
+            recipe.setCalories(300 + i * 5);
+            Map<String, String> ingredients = new LinkedHashMap<>();
+            for (int j = 0; j < INGREDIENTS_PER_RECIPE; j++) {
+                ingredients.put("benchmark item " + ((i * INGREDIENTS_PER_RECIPE + j) % DISTINCT_INGREDIENTS), "200g");
+            }
+            recipe.setIngredients(ingredients);
+            recipeRepository.save(recipe);
+        }
+    }
+
+    private List<String> seedUsers(int count) {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String email = "bench-" + mode() + "-" + i + "@example.com";
+            User user = userRepository.findByEmail(email).orElseGet(() -> {
+                User created = new User();
+                created.setEmail(email);
+                created.setPassword(passwordEncoder.encode("password"));
+                created.setRole(Role.USER);
+                created.setPreferences(new UserPreference());
+                return userRepository.save(created);
+            });
+            tokens.add(jwtService.generateToken(user));
+        }
+        return tokens;
+    }
+
+    private record Result(List<Long> latencies, int errors, long elapsedNanos) {
+
+        long percentile(int p) {
+            if (latencies.isEmpty()) return 0;
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+        }
+
+        double throughput() {
+            return latencies.size() / (elapsedNanos / 1e9);
+        }
+    }
+}
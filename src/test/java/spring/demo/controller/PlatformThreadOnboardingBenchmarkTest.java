@@ -0,0 +1,16 @@
+package spring.demo.controller;
+
+import org.springframework.test.context.TestPropertySource;
+
+// Tomcat's default pool and a fixed pricing pool
+@TestPropertySource(properties = {
+        "spring.threads.virtual.enabled=false",
+        "spring.datasource.url=jdbc:h2:mem:benchmark-platform;MODE=PostgreSQL;DB_CLOSE_DELAY=-1"
+})
+class PlatformThreadOnboardingBenchmarkTest extends OnboardingBenchmarkSupport {
+
+    @Override
+    String mode() {
+        return "platform";
+    }
+}
@@ -0,0 +1,114 @@
+package spring.demo.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import spring.demo.models.DashboardData;
+import spring.demo.models.GroceryItem;
+import spring.demo.models.Recipe;
+import spring.demo.models.RecipeSummary;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+Response size and serialization time of the recipe list endpoints, with the full entities they used to return
+against the summaries they return now. Uses the same Jackson setup as the app, no context or database.
+Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+class RecipePayloadBenchmarkTest {
+
+    private static final int PLAN_SIZE = 21;
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 10_000;
+
+    private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @Test
+    void summariesShouldShrinkListResponses() throws Exception {
+        List<Recipe> plan = new ArrayList<>();
+        for (int i = 0; i < PLAN_SIZE; i++) {
+            plan.add(recipe(i));
+        }
+        List<GroceryItem> groceries = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            groceries.add(new GroceryItem((long) i, "grocery item " + i, 3.49, "https://i5.walmartimages.com/item" + i + ".jpeg",
+                    "https://www.walmart.com/ip/" + i, false));
+        }
+
+        List<String> report = new ArrayList<>();
+        // /api/onboarding and /api/meal-plans return the new plan, /api/meals the user's meals: the same list shape
+        report.add(measure("/api/meals, /api/onboarding", plan, RecipeSummary.of(plan)));
+
+        // /api/load: three of today's meals and two random picks around the grocery list
+        Map<String, Object> fullDashboard = new LinkedHashMap<>();
+        fullDashboard.put("selectedMeals", plan.subList(0, 3));
+        fullDashboard.put("randomMeals", plan.subList(3, 5));
+        fullDashboard.put("groceryList", groceries);
+        DashboardData slimDashboard = new DashboardData(RecipeSummary.of(plan.subList(0, 3)), RecipeSummary.of(plan.subList(3, 5)),
+                groceries, 40, 100, 800, 2000, 1200);
+        report.add(measure("/api/load", fullDashboard, slimDashboard));
+
+        report.forEach(System.out::println);
+        Path out = Path.of("target", "benchmark", "recipe-payloads.txt");
+        Files.createDirectories(out.getParent());
+        Files.write(out, report, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        assertTrue(mapper.writeValueAsBytes(RecipeSummary.of(plan)).length * 4 < mapper.writeValueAsBytes(plan).length);
+    }
+
+    private String measure(String endpoint, Object before, Object after) throws Exception {
+        int beforeBytes = mapper.writeValueAsBytes(before).length;
+        int afterBytes = mapper.writeValueAsBytes(after).length;
+        double beforeMicros = serializeMicros(before);
+        double afterMicros = serializeMicros(after);
+        return String.format("%s bytes %d -> %d (%.0f%% smaller), serialization %.1fus -> %.1fus",
+                endpoint, beforeBytes, afterBytes, 100.0 * (beforeBytes - afterBytes) / beforeBytes, beforeMicros, afterMicros);
+    }
+
+    private double serializeMicros(Object body) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            mapper.writeValueAsBytes(body);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mapper.writeValueAsBytes(body);
+        }
+        return (System.nanoTime() - start) / 1_000.0 / ITERATIONS;
+    }
+
+    // sized like a TheMealDB recipe: a few paragraphs of instructions and a dozen ingredients
+    private static Recipe recipe(int i) {
+        Recipe recipe = new Recipe();
+        recipe.setId(i + 1);
+        recipe.setName("Benchmark Recipe " + i);
+        recipe.setCategory("Chicken");
+        recipe.setArea("British");
+        recipe.setThumbnail("https://www.themealdb.com/images/media/meals/" + i + ".jpg");
+        recipe.setYoutube("https://www.youtube.com/watch?v=" + i);
+        recipe.setTags("Meat,Dinner,Casserole");
+        recipe.setInstructions(("Preheat the oven to 180C. Season the chicken and brown it in a large pan with a little oil, "
+                + "then set aside. Soften the onions, garlic and carrots for ten minutes, stir in the flour and cook for a minute. "
+                + "Pour in the stock gradually, bring to a simmer and return the chicken to the pan. ").repeat(5));
+        recipe.setCalories(400 + i * 10);
+        recipe.setProtein(30);
+        recipe.setCarbohydrate(45);
+        recipe.setFat(12);
+        recipe.setMealCost(4.25);
+        Map<String, String> ingredients = new LinkedHashMap<>();
+        for (int j = 0; j < 12; j++) {
+            ingredients.put("ingredient " + j, (j + 1) * 50 + "g");
+        }
+        recipe.setIngredients(ingredients);
+        return recipe;
+    }
+}
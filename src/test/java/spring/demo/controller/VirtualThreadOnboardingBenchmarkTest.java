@@ -0,0 +1,16 @@
+package spring.demo.controller;
+
+import org.springframework.test.context.TestPropertySource;
+
+// requests and price lookups on virtual threads
+@TestPropertySource(properties = {
+        "spring.threads.virtual.enabled=true",
+        "spring.datasource.url=jdbc:h2:mem:benchmark-virtual;MODE=PostgreSQL;DB_CLOSE_DELAY=-1"
+})
+class VirtualThreadOnboardingBenchmarkTest extends OnboardingBenchmarkSupport {
+
+    @Override
+    String mode() {
+        return "virtual";
+    }
+}
@@ -2,6 +2,7 @@ package spring.demo.services;
 
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
@@ -10,21 +11,79 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import spring.demo.models.Ingredient;
+import spring.demo.models.IngredientMeasure;
+import spring.demo.models.Quantity;
+import spring.demo.models.QuantityParser;
 import spring.demo.models.Recipe;
+import spring.demo.models.RecipeSummary;
+import spring.demo.models.RecipeWrittenEvent;
+import spring.demo.models.ShoppingList;
+import spring.demo.models.Suggestion;
+import spring.demo.models.UnitDimension;
 import spring.demo.models.User;
 import spring.demo.models.UserMealPlan;
 import spring.demo.models.UserPreference;
+import spring.demo.models.repository.IngredientRepository;
+import spring.demo.models.repository.RecipeRepository;
 import spring.demo.models.repository.UserRepository;
+import spring.demo.config.RecipeIngredientsMigration;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 
+import spring.demo.service.GroceryListService;
 import spring.demo.service.MealPlanService;
+import spring.demo.service.PlanContext;
+import spring.demo.service.PlanJob;
+import spring.demo.service.PlanJobService;
+import spring.demo.service.PlanBusyException;
+import spring.demo.service.PlanLockService;
+import spring.demo.service.PricedIngredientWriter;
+import spring.demo.service.ReadYourWrites;
+import spring.demo.config.ReadOnlyCacheModeJpaDialect;
+import spring.demo.config.ReadWriteRoutingDataSource;
+import jakarta.persistence.EntityManager;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import spring.demo.service.index.AllergenIndex;
+import spring.demo.service.index.CalorieIndex;
+import spring.demo.service.index.CatalogCalorieIndex;
+import spring.demo.service.index.NameAutocomplete;
+import spring.demo.service.index.PantryStaples;
+import spring.demo.service.index.RecipeCatalog;
+import spring.demo.service.index.RecipeSampler;
+import spring.demo.service.index.RecipeSearchIndex;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -48,17 +107,158 @@ class UnitTests {
 
     @Autowired
     private MealPlanService mealPlanService;
-    
+
+    @Autowired
+    private AllergenIndex allergenIndex;
+
+    @Autowired
+    private PantryStaples pantryStaples;
+
+    @Autowired
+    private GroceryListService groceryListService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private RecipeRepository recipeRepository;
+
+    @Autowired
+    private RecipeIngredientsMigration recipeIngredientsMigration;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private IngredientRepository ingredientRepository;
+
+    @Autowired
+    private PricedIngredientWriter pricedIngredientWriter;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
     @Test
     void checkUnitTypeGram(){
-        String res = mealPlanService.getUnitType("200g");
-        assertEquals("grams", res);
+        assertEquals(UnitDimension.MASS, QuantityParser.parse("200g").dimension());
     }
 
     @Test
     void checkNoType(){
-        String res = mealPlanService.getUnitType("5 oranges");
-        assertEquals("count", res);
+        assertEquals(UnitDimension.COUNT, QuantityParser.parse("5 oranges").dimension());
+    }
+
+    @Test
+    void shouldNormalizeMixedUnitsAndFractions() {
+        Quantity cups = QuantityParser.parse("1 1/2 cups");
+        assertEquals(UnitDimension.VOLUME, cups.dimension());
+        assertEquals(360, cups.amount(), 0.01);
+
+        assertEquals(1.5, QuantityParser.parse("½ tbsp").toTeaspoons(), 0.01);
+        assertEquals(1500, QuantityParser.parse("1.5kg").toGrams(), 0.01);
+        assertEquals(680.39, QuantityParser.parse("1 lb 8 oz").toGrams(), 0.01);
+        assertEquals(2130, QuantityParser.parse("6 x 355 ml").toMilliliters(), 0.01);
+        assertEquals(UnitDimension.VOLUME, QuantityParser.parse("64 fl oz").dimension());
+        assertEquals(new Quantity(3, UnitDimension.COUNT), QuantityParser.parse("3 cloves"));
+        assertEquals(Quantity.NONE, QuantityParser.parse("to taste"));
+        assertEquals(0, QuantityParser.parse("2 chicken breasts").toGrams(), 0.01);
+        assertEquals(0, QuantityParser.parse("to taste").toMilliliters(), 0.01);
+    }
+
+    @Test
+    void shouldCostIngredientsAcrossCountAndMeasuredUnits() {
+        Ingredient onions = new Ingredient("onion");
+        onions.setServingsPerContainer("3 lb");
+        onions.setPrice(3.0);
+        // counted recipe amount against a weighed package divides by the package's own number
+        assertEquals(2.0, mealPlanService.calculateIngredientCost(onions, "onion", new IngredientMeasure("2 onions")), 0.001);
+
+        Ingredient peppers = new Ingredient("pepper");
+        peppers.setServingsPerContainer("4 ct");
+        peppers.setPrice(5.0);
+        // weighed recipe amount against a counted package falls back to the package price
+        assertEquals(5.0, mealPlanService.calculateIngredientCost(peppers, "pepper", new IngredientMeasure("200 g")), 0.001);
+
+        Ingredient flour = new Ingredient("flour");
+        flour.setServingsPerContainer("1 kg");
+        flour.setPrice(4.0);
+        assertEquals(0.8, mealPlanService.calculateIngredientCost(flour, "flour", new IngredientMeasure("200 g")), 0.001);
+    }
+
+    @Test
+    void shouldFindClosestRecipesByCalories() {
+        CalorieIndex index = CalorieIndex.of(Map.of(1L, 300, 2L, 450, 3L, 500, 4L, 520, 5L, 900));
+
+        assertEquals(List.of(3L, 4L, 2L), index.closest(490, 120, 5, id -> false));
+        assertEquals(List.of(4L), index.closest(490, 120, 1, id -> id == 3L));
+        assertEquals(5L, index.nearest(1000, id -> false));
+        assertEquals(-1L, index.nearest(1000, id -> true));
+    }
+
+    @Test
+    void catalogCalorieIndexShouldFollowPerRecipeWrites() {
+        CatalogCalorieIndex catalog = new CatalogCalorieIndex();
+        for (long id = 1; id <= 5; id++) {
+            Recipe recipe = indexRecipe(id, "Beef");
+            recipe.setCalories((int) id * 100);
+            catalog.onRecipesWritten(new RecipeWrittenEvent(List.of(recipe)));
+        }
+        assertEquals(List.of(3L, 2L, 4L), catalog.closest(300, 100, 5, id -> false));
+
+        // a write after a lookup is seen by the next one
+        Recipe updated = indexRecipe(5, "Beef");
+        updated.setCalories(310);
+        catalog.onRecipesWritten(new RecipeWrittenEvent(List.of(updated)));
+        assertEquals(5L, catalog.nearest(315, id -> false));
+    }
+
+    @Test
+    void shouldClassifyPantryStaples() {
+        PantryStaples.Classifier defaults = pantryStaples.forUser(new UserPreference());
+        assertTrue(defaults.isStaple("extra virgin olive oil"));
+        assertTrue(defaults.isStaple("olive"));
+        assertFalse(defaults.isStaple("chicken breast"));
+
+        UserPreference pref = new UserPreference();
+        pref.setPantry("Eggs, Chicken Stock");
+        PantryStaples.Classifier own = pantryStaples.forUser(pref);
+        assertTrue(own.isStaple("chicken stock"));
+        assertFalse(own.isStaple("chicken breast"));
+    }
+
+    @Test
+    void shouldAggregateGroceryListAndPatchOnSwap() {
+        Ingredient chicken = new Ingredient("chicken breast");
+        chicken.setServingsPerContainer("1 kg");
+        chicken.setPrice(4.0);
+        Ingredient tomato = new Ingredient("tomato");
+        tomato.setServingsPerContainer("3 ct");
+        tomato.setPrice(2.5);
+
+        Recipe stew = new Recipe();
+        stew.setIngredients(Map.of("Chicken Breast", "600g", "Tomato", "2"));
+        Recipe salad = new Recipe();
+        salad.setIngredients(Map.of("chicken breast", "500g", "tomato", "1", "salt", "1 tsp"));
+
+        User user = new User();
+        groceryListService.addRecipes(user, List.of(stew, salad), Map.of("chicken breast", chicken, "tomato", tomato)::get);
+
+        ShoppingList list = groceryListService.shoppingList(user);
+        assertEquals(2, list.getItems().size());
+        ShoppingList.Item chickenItem = list.getItems().stream().filter(i -> i.name().equals("chicken breast")).findFirst().orElseThrow();
+        assertEquals(1100, chickenItem.requiredAmount(), 0.01);
+        assertEquals(2, chickenItem.packages());
+        assertEquals(10.5, list.getTotalCost(), 0.001);
+
+        groceryListService.swapRecipe(user, stew, null);
+        list = groceryListService.shoppingList(user);
+        chickenItem = list.getItems().stream().filter(i -> i.name().equals("chicken breast")).findFirst().orElseThrow();
+        assertEquals(500, chickenItem.requiredAmount(), 0.01);
+        assertEquals(1, chickenItem.packages());
+        assertEquals(6.5, list.getTotalCost(), 0.001);
+
+        groceryListService.swapRecipe(user, salad, null);
+        assertTrue(user.getGroceryList().isEmpty());
     }
 
     @Test
@@ -148,6 +348,199 @@ class UnitTests {
         assertEquals(2, user.getMealPlans().size());
     }
 
+    @Test
+    void planLocksShouldTimeOutAndRetryConflicts() throws Exception {
+        PlanLockService locks = new PlanLockService(transactionManager, 16, 50, 2);
+        String email = "locked@example.com";
+
+        // a change holding the user's stripe makes the next one give up after the wait
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> first = other.submit(() -> locks.mutate(email, () -> {
+                holding.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "first";
+            }));
+            assertTrue(holding.await(5, TimeUnit.SECONDS));
+            assertThrows(PlanBusyException.class, () -> locks.mutate(email.toUpperCase(), () -> "second"));
+            release.countDown();
+            assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        } finally {
+            other.shutdownNow();
+        }
+
+        // an optimistic lock failure reruns the change in a new transaction
+        AtomicInteger attempts = new AtomicInteger();
+        String result = locks.mutate(email, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new ObjectOptimisticLockingFailureException(User.class, 1L);
+            }
+            return "retried";
+        });
+        assertEquals("retried", result);
+        assertEquals(2, attempts.get());
+
+        // and gives up once the retries are spent
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> locks.mutate(email, () -> {
+            throw new ObjectOptimisticLockingFailureException(User.class, 1L);
+        }));
+
+        PlanLockService.Stats stats = locks.stats();
+        assertEquals(1, stats.contended());
+        assertEquals(1, stats.timedOut());
+        assertEquals(3, stats.retried());
+        assertEquals(1, stats.conflicts());
+        assertTrue(stats.maxWaitMs() >= 50);
+    }
+
+    @Test
+    void planJobsShouldPriceOutsideTheTransactionAndRetryOnlyTheSave() throws Exception {
+        User user = new User();
+        user.setId(7L);
+        user.setEmail("retry@example.com");
+        UserRepository users = Mockito.mock(UserRepository.class);
+        when(users.findById(7L)).thenReturn(Optional.of(user));
+
+        ArrayList<Recipe> candidates = new ArrayList<>();
+        for (long id = 1; id <= 14; id++) {
+            Recipe recipe = new Recipe();
+            recipe.setId(id);
+            recipe.setName("Retry " + id);
+            candidates.add(recipe);
+        }
+
+        // pricing commits on its own, then the first save loses an optimistic check and rolls back
+        List<Boolean> pricedInTransaction = new CopyOnWriteArrayList<>();
+        List<Boolean> savedInTransaction = new CopyOnWriteArrayList<>();
+        MealPlanService plans = Mockito.mock(MealPlanService.class);
+        when(plans.newContext()).thenAnswer(invocation -> new PlanContext(10));
+        when(plans.preparePlan(Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+            pricedInTransaction.add(TransactionSynchronizationManager.isActualTransactionActive());
+            PlanContext context = invocation.getArgument(1);
+            Ingredient tomato = new Ingredient();
+            tomato.setId(99L);
+            tomato.setName("Tomato");
+            context.addPriced(tomato);
+            context.report(PlanContext.Stage.PRICING, 1, 1);
+            return candidates;
+        });
+        when(plans.savePlan(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+            savedInTransaction.add(TransactionSynchronizationManager.isActualTransactionActive());
+            PlanContext context = invocation.getArgument(2);
+            assertEquals(1, context.pricedCount());
+            if (savedInTransaction.size() == 1) {
+                throw new ObjectOptimisticLockingFailureException(User.class, 7L);
+            }
+            List<Recipe> picked = invocation.getArgument(1);
+            context.report(PlanContext.Stage.SELECTED, picked.size(), picked.size());
+            return new ArrayList<>(picked);
+        });
+
+        ExecutorService delivery = Executors.newSingleThreadExecutor();
+        PlanJobService jobs = new PlanJobService(plans, users, new PlanLockService(transactionManager, 16, 1000, 2),
+                event -> {
+                }, delivery, 1, 4, 30, true);
+        try {
+            PlanJob job = jobs.submit(user, null);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (!job.isFinished() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(PlanJob.Status.DONE, job.getStatus(), job.getError());
+            assertEquals(List.of(false), pricedInTransaction);
+            assertEquals(List.of(true, true), savedInTransaction);
+            assertEquals(14, job.getRecipes().size());
+            assertEquals(PlanContext.Stage.SELECTED, job.getProgress().stage());
+        } finally {
+            delivery.shutdownNow();
+        }
+    }
+
+    @Test
+    void planJobEventsShouldNotWaitForSlowSubscribers() throws Exception {
+        ExecutorService delivery = Executors.newSingleThreadExecutor();
+        try {
+            PlanContext context = new PlanContext(10);
+            PlanJob job = new PlanJob(1L, "slow@example.com", context, delivery);
+
+            // the subscriber is stuck on its first event while the plan keeps reporting
+            CountDownLatch sending = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            List<PlanJob.Event> received = new CopyOnWriteArrayList<>();
+            job.subscribe(event -> {
+                sending.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.add(event);
+            });
+            context.report(PlanContext.Stage.LOADED, 40, 40);
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i <= 100; i++) {
+                context.report(PlanContext.Stage.PRICING, i, 100);
+            }
+            context.report(PlanContext.Stage.PRICE_FILTERED, 20, 40);
+            release.countDown();
+
+            // the ticks it missed collapse into the latest one, stage changes all arrive in order
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (received.size() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(List.of("loaded", "pricing", "price_filtered"), received.stream().map(PlanJob.Event::name).toList());
+            assertEquals(new PlanContext.Progress(PlanContext.Stage.PRICING, 100, 100), received.get(1).data());
+        } finally {
+            delivery.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldMigrateIngredientsIntoTheRecipeRowAndLoadListsInOneStatement() throws Exception {
+        Recipe recipe = new Recipe();
+        recipe.setName("Legacy Pancakes " + System.currentTimeMillis());
+        recipe = recipeRepository.save(recipe);
+
+        // a recipe saved before the JSON column existed, its ingredients still in the collection table
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS recipe_ingredients (entity_id BIGINT NOT NULL, map_key VARCHAR(255) NOT NULL, " +
+                "map_value VARCHAR(255), normalized_amount DOUBLE PRECISION, unit_dimension VARCHAR(255))");
+        try {
+            jdbcTemplate.update("UPDATE recipes SET ingredients = NULL WHERE id = ?", recipe.getId());
+            jdbcTemplate.update("INSERT INTO recipe_ingredients (entity_id, map_key, map_value) VALUES (?, ?, ?), (?, ?, ?)",
+                    recipe.getId(), "Flour", "200g", recipe.getId(), "Milk", "1 1/2 cups");
+            assertTrue(recipeRepository.findById(recipe.getId()).orElseThrow().getIngredients().isEmpty());
+
+            recipeIngredientsMigration.run(null);
+
+            Recipe migrated = recipeRepository.findById(recipe.getId()).orElseThrow();
+            assertEquals(Map.of("Flour", "200g", "Milk", "1 1/2 cups"), migrated.getIngredients());
+            assertEquals(360, migrated.getMeasures().get("Milk").getQuantity().amount(), 0.01);
+        } finally {
+            jdbcTemplate.execute("DROP TABLE recipe_ingredients");
+        }
+
+        // ingredients come back with the recipe rows, however many there are
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        try {
+            List<Recipe> recipes = recipeRepository.findAll();
+            assertTrue(recipes.size() > 50);
+            recipes.forEach(Recipe::getIngredients);
+            assertEquals(1, statistics.getPrepareStatementCount());
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
     @Test
     @WithMockUser(username = "test@example.com")
     void shouldReturnTwoRandomRecipes() throws Exception {
@@ -156,12 +549,281 @@ class UnitTests {
         assertEquals(2, recipeList.size());
     }
 
+    @Test
+    void pricedIngredientsShouldBeUpsertedByName() {
+        String run = Long.toString(System.currentTimeMillis());
+        Ingredient stored = new Ingredient("upsert stored " + run);
+        stored.setPrice(1.0);
+        stored.setProductUrl("https://www.walmart.com/ip/original");
+        stored = ingredientRepository.save(stored);
+
+        Ingredient refreshed = new Ingredient(stored.getName());
+        refreshed.setPrice(2.5);
+        refreshed.setProductUrl("https://www.walmart.com/ip/other");
+        refreshed.setServingsPerContainer("500 g");
+        Ingredient added = new Ingredient("upsert new " + run);
+        added.setPrice(3.0);
+        added.setServingsPerContainer("12 count");
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                pricedIngredientWriter.write(List.of(refreshed, added)));
+
+        assertEquals(stored.getId(), refreshed.getId());
+        Ingredient updated = ingredientRepository.findById(stored.getId()).orElseThrow();
+        assertEquals(2.5, updated.getTotalPrice());
+        assertEquals(500, updated.getPackageQuantity().amount(), 0.01);
+        // product links and creation times stay as first written, like the entity mapping
+        assertEquals("https://www.walmart.com/ip/original", updated.getProductUrl());
+        assertEquals(stored.getCreatedAt().withNano(0), updated.getCreatedAt().withNano(0));
+        assertTrue(updated.isCacheValid());
+
+        assertNotNull(added.getId());
+        Ingredient inserted = ingredientRepository.findById(added.getId()).orElseThrow();
+        assertEquals(added.getName(), inserted.getName());
+        assertEquals(3.0, inserted.getTotalPrice());
+        assertEquals(UnitDimension.COUNT, inserted.getPackageQuantity().dimension());
+        assertTrue(inserted.isCacheValid());
+    }
+
+    @Test
+    void readOnlyTransactionsShouldUseTheReplicaUnlessTheUserJustWrote() throws Exception {
+        String run = Long.toString(System.nanoTime());
+        SimpleDriverDataSource primary = node("primary", run);
+        SimpleDriverDataSource replica = node("replica", run);
+
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        ReadYourWrites readYourWrites = new ReadYourWrites(300, beans.getBeanProvider(PlatformTransactionManager.class));
+        LazyConnectionDataSourceProxy routed = new LazyConnectionDataSourceProxy(
+                new ReadWriteRoutingDataSource(primary, replica, readYourWrites));
+        DataSourceTransactionManager transactions = new DataSourceTransactionManager(routed);
+        beans.addBean("transactionManager", transactions);
+        JdbcTemplate jdbc = new JdbcTemplate(routed);
+        TransactionTemplate write = new TransactionTemplate(transactions);
+
+        assertEquals("replica", readYourWrites.readOnly("alice", () -> jdbc.queryForObject("SELECT name FROM node", String.class)));
+        // writes always go to the primary
+        readYourWrites.asUser("alice", () -> write.execute(status -> jdbc.update("INSERT INTO note VALUES ('from alice')")));
+        assertEquals(1, new JdbcTemplate(primary).queryForObject("SELECT COUNT(*) FROM note", Integer.class));
+        assertEquals(0, new JdbcTemplate(replica).queryForObject("SELECT COUNT(*) FROM note", Integer.class));
+
+        // alice reads her own write until the window passes, bob is on the replica throughout
+        assertEquals(1, readYourWrites.readOnly("alice", () -> jdbc.queryForObject("SELECT COUNT(*) FROM note", Integer.class)));
+        assertEquals(0, readYourWrites.readOnly("bob", () -> jdbc.queryForObject("SELECT COUNT(*) FROM note", Integer.class)));
+        Thread.sleep(400);
+        assertEquals("replica", readYourWrites.readOnly("alice", () -> jdbc.queryForObject("SELECT name FROM node", String.class)));
+
+        // a rolled back write doesn't pin its user to the primary
+        readYourWrites.asUser("bob", () -> write.execute(status -> {
+            jdbc.update("INSERT INTO note VALUES ('from bob')");
+            status.setRollbackOnly();
+            return null;
+        }));
+        assertEquals("replica", readYourWrites.readOnly("bob", () -> jdbc.queryForObject("SELECT name FROM node", String.class)));
+
+        ReadYourWrites.Stats stats = readYourWrites.stats();
+        assertEquals(1, stats.primaryReads());
+        assertEquals(4, stats.replicaReads());
+        assertEquals(1, stats.writes());
+    }
+
+    @Test
+    void readOnlyTransactionsShouldNotFillTheEntityCache() {
+        Recipe recipe = new Recipe();
+        recipe.setName("Replica Cache " + System.nanoTime());
+        recipe.setCategory("Vegan");
+        long id = recipeRepository.save(recipe).getId();
+
+        JpaTransactionManager transactions = new JpaTransactionManager(entityManagerFactory);
+        transactions.setJpaDialect(new ReadOnlyCacheModeJpaDialect());
+        TransactionTemplate read = new TransactionTemplate(transactions);
+        read.setReadOnly(true);
+        TransactionTemplate write = new TransactionTemplate(transactions);
+        EntityManager entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+
+        // a read-only load may come from a lagging replica, so it leaves the cache as it was
+        entityManagerFactory.getCache().evict(Recipe.class, id);
+        assertNotNull(read.execute(status -> entityManager.find(Recipe.class, id)));
+        assertFalse(entityManagerFactory.getCache().contains(Recipe.class, id));
+
+        assertNotNull(write.execute(status -> entityManager.find(Recipe.class, id)));
+        assertTrue(entityManagerFactory.getCache().contains(Recipe.class, id));
+
+        // and cached entries are still read
+        long hits = entityManagerFactory.unwrap(SessionFactory.class).getStatistics().getSecondLevelCacheHitCount();
+        assertNotNull(read.execute(status -> entityManager.find(Recipe.class, id)));
+        assertTrue(entityManagerFactory.unwrap(SessionFactory.class).getStatistics().getSecondLevelCacheHitCount() > hits);
+    }
 
+    // an H2 database that knows which node it is
+    private static SimpleDriverDataSource node(String name, String run) {
+        SimpleDriverDataSource dataSource = new SimpleDriverDataSource(new org.h2.Driver(),
+                "jdbc:h2:mem:" + name + run + ";DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE node (name VARCHAR(16))");
+        jdbc.execute("CREATE TABLE note (text VARCHAR(64))");
+        jdbc.update("INSERT INTO node VALUES (?)", name);
+        return dataSource;
+    }
 
+    @Test
+    void samplerShouldDrawDistinctIdsSkipExclusionsAndBalanceCategories() {
+        RecipeSampler sampler = new RecipeSampler();
+        List<Recipe> recipes = new ArrayList<>();
+        // one large category and two small ones
+        for (long id = 1; id <= 40; id++) {
+            recipes.add(indexRecipe(id, id <= 30 ? "Beef" : id <= 35 ? "Dessert" : "Vegan"));
+        }
+        sampler.onRecipesWritten(new RecipeWrittenEvent(recipes));
+        assertEquals(40, sampler.size());
+
+        Set<Long> plan = Set.of(1L, 2L, 3L, 31L, 36L);
+        for (int i = 0; i < 200; i++) {
+            List<Long> drawn = sampler.sample(10, plan::contains);
+            assertEquals(10, drawn.size());
+            assertEquals(10, new HashSet<>(drawn).size());
+            assertTrue(drawn.stream().noneMatch(plan::contains));
+
+            List<Long> balanced = sampler.sampleBalanced(6, plan::contains);
+            assertEquals(2, balanced.stream().filter(id -> id <= 30).count());
+            assertEquals(2, balanced.stream().filter(id -> id > 30 && id <= 35).count());
+            assertEquals(2, balanced.stream().filter(id -> id > 35).count());
+            assertTrue(balanced.stream().noneMatch(plan::contains));
+        }
+
+        // asking for more than is left returns everything that's left, the scan finds what probing missed
+        assertEquals(35, sampler.sample(100, plan::contains).size());
+        assertEquals(35, sampler.sampleBalanced(100, plan::contains).size());
+        assertEquals(List.of(40L), sampler.sample(3, id -> id != 40));
+    }
 
+    @Test
+    void searchShouldRankByBm25AcrossFieldsAndFollowRecipeWrites() {
+        RecipeSearchIndex index = new RecipeSearchIndex(new RecipeCatalog(null, null));
+        Recipe tikka = searchRecipe(1, "Chicken Tikka Masala", "Chicken", "Indian", "Curry,Spicy", "Chicken", "Garlic", "Tomatoes");
+        Recipe roast = searchRecipe(2, "Roast Chicken", "Chicken", "British", "Roast", "Chicken", "Potatoes");
+        Recipe stew = searchRecipe(3, "Beef Stew", "Beef", "British", "Stew", "Beef", "Chicken Stock", "Carrots");
+        Recipe pasta = searchRecipe(4, "Garlic Pasta", "Pasta", "Italian", null, "Spaghetti", "Garlic", "Parmesan");
+        index.onRecipesWritten(new RecipeWrittenEvent(List.of(tikka, roast, stew, pasta)));
+        assertEquals(4, index.size());
+
+        // both terms beat one, and the name counts for more than an ingredient
+        assertEquals(List.of(1L, 4L), ids(index.search("garlic chicken", 2)));
+        assertEquals(List.of(2L, 1L, 3L), ids(index.search("chicken", 10)).subList(0, 3));
+        assertEquals(List.of(3L), ids(index.search("beef", 10)));
+        // plurals, case, accents and stop words
+        assertEquals(List.of(1L), ids(index.search("TOMATO", 10)));
+        assertEquals(List.of(2L), ids(index.search("potato", 10)));
+        assertEquals(List.of(1L), ids(index.search("indian curries", 10)));
+        assertEquals(List.of(4L), ids(index.search("Parmesán", 10)));
+        assertEquals(List.of(), index.search("the and of", 10));
+        assertEquals(List.of(), index.search("lobster", 10));
+
+        // an updated recipe is found under its new terms only
+        Recipe vegetarian = searchRecipe(3, "Vegetable Stew", "Vegetarian", "British", "Stew", "Carrots", "Lentils");
+        index.onRecipesWritten(new RecipeWrittenEvent(List.of(vegetarian)));
+        assertEquals(4, index.size());
+        assertEquals(List.of(), index.search("beef", 10));
+        assertEquals(List.of(3L), ids(index.search("lentil", 10)));
+        assertEquals("Vegetable Stew", index.search("stew", 1).get(0).name());
+    }
 
+    @Test
+    void autocompleteShouldCompleteAnyWordByPopularityAndFollowRecipeWrites() {
+        NameAutocomplete autocomplete = new NameAutocomplete(null);
+        autocomplete.onRecipesWritten(new RecipeWrittenEvent(List.of(
+                searchRecipe(1, "Chicken Tikka Masala", "Chicken", null, null, "Chicken", "Garlic", "Garam Masala"),
+                searchRecipe(2, "Chicken Curry", "Chicken", null, null, "Chicken", "Garlic"),
+                searchRecipe(3, "Chickpea Salad", "Vegan", null, null, "Chickpeas", "Garlic"),
+                searchRecipe(4, "Crème Brûlée", "Dessert", null, null, "Cream", "Egg"))));
+
+        // nothing planned yet, shorter names first
+        NameAutocomplete.Suggestions chi = autocomplete.complete("Chi", 10);
+        assertEquals(List.of("Chicken Curry", "Chickpea Salad", "Chicken Tikka Masala"), names(chi.recipes()));
+        assertEquals(List.of("Chicken", "Chickpeas"), names(chi.ingredients()));
+        assertEquals(2, chi.ingredients().get(0).popularity());
+        assertEquals(2L, chi.recipes().get(0).recipeId());
+        assertNull(chi.ingredients().get(0).recipeId());
+
+        autocomplete.updatePopularity(Map.of(1L, 5L, 3L, 2L));
+        assertEquals(List.of("Chicken Tikka Masala", "Chickpea Salad", "Chicken Curry"),
+                names(autocomplete.complete("chi", 10).recipes()));
+        assertEquals(List.of("Chicken Tikka Masala"), names(autocomplete.complete("chi", 1).recipes()));
+
+        // any word, folded case, accents and spacing
+        assertEquals(List.of("Chicken Tikka Masala"), names(autocomplete.complete("masa", 10).recipes()));
+        assertEquals(List.of("Garam Masala"), names(autocomplete.complete("masa", 10).ingredients()));
+        assertEquals(List.of("Chicken Tikka Masala"), names(autocomplete.complete("chicken   T", 10).recipes()));
+        assertEquals(List.of("Crème Brûlée"), names(autocomplete.complete("creme bru", 10).recipes()));
+        assertEquals(List.of(), autocomplete.complete("zz", 10).recipes());
+        assertEquals(Optional.of(4L), autocomplete.recipeId("CREME brulee"));
+
+        // a rewritten recipe completes under its new name only and gives up its ingredients
+        autocomplete.onRecipesWritten(new RecipeWrittenEvent(List.of(searchRecipe(2, "Beef Curry", "Beef", null, null, "Beef"))));
+        assertEquals(List.of("Chicken Tikka Masala", "Chickpea Salad"), names(autocomplete.complete("chi", 10).recipes()));
+        assertEquals(1, autocomplete.complete("chicken", 10).ingredients().get(0).popularity());
+        assertEquals(Optional.empty(), autocomplete.recipeId("Chicken Curry"));
+        assertEquals(Optional.of(2L), autocomplete.recipeId("beef curry"));
+    }
 
+    private static List<String> names(List<Suggestion> suggestions) {
+        return suggestions.stream().map(Suggestion::name).toList();
+    }
 
+    private static Recipe searchRecipe(long id, String name, String category, String area, String tags, String... ingredients) {
+        Recipe recipe = new Recipe();
+        recipe.setId(id);
+        recipe.setName(name);
+        recipe.setCategory(category);
+        recipe.setArea(area);
+        recipe.setTags(tags);
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String ingredient : ingredients) {
+            map.put(ingredient, "1");
+        }
+        recipe.setIngredients(map);
+        return recipe;
+    }
 
-}
+    private static List<Long> ids(List<RecipeSummary> recipes) {
+        return recipes.stream().map(RecipeSummary::id).toList();
+    }
+
+    @Test
+    void shouldExcludeAllergensAndNonVeganRecipes() {
+        Recipe pesto = indexRecipe(900_001L, "Vegetarian", "Pine Nuts", "Parmesan", "Basil");
+        Recipe curry = indexRecipe(900_002L, "Vegan", "Chickpeas", "Coconut Milk", "Eggplant");
+        Recipe stew = indexRecipe(900_003L, "Beef", "Beef", "Carrots");
+        allergenIndex.indexMissing(List.of(pesto, curry, stew));
+
+        UserPreference vegan = new UserPreference();
+        vegan.setVegan(true);
+        BitSet veganExclusions = allergenIndex.exclusions(vegan);
+        assertFalse(allergenIndex.permits(veganExclusions, pesto));
+        assertTrue(allergenIndex.permits(veganExclusions, curry));
+        assertFalse(allergenIndex.permits(veganExclusions, stew));
+        // the catalog calorie index only hands out ids
+        assertTrue(allergenIndex.excludes(veganExclusions, pesto.getId()));
+        assertFalse(allergenIndex.excludes(veganExclusions, curry.getId()));
+        assertFalse(allergenIndex.excludes(veganExclusions, 900_999L));
+
+        UserPreference allergies = new UserPreference();
+        allergies.setAllergies("nuts, carrot");
+        BitSet allergyExclusions = allergenIndex.exclusions(allergies);
+        assertFalse(allergenIndex.permits(allergyExclusions, pesto));
+        assertTrue(allergenIndex.permits(allergyExclusions, curry));
+        assertFalse(allergenIndex.permits(allergyExclusions, stew));
+    }
 
+    private Recipe indexRecipe(long id, String category, String... ingredients) {
+        Recipe recipe = new Recipe();
+        recipe.setId(id);
+        recipe.setName("Allergen Test " + id);
+        recipe.setCategory(category);
+        Map<String, String> map = new HashMap<>();
+        for (String ingredient : ingredients) {
+            map.put(ingredient, "1");
+        }
+        recipe.setIngredients(map);
+        return recipe;
+    }
+}